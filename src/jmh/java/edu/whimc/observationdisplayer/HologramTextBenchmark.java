@@ -0,0 +1,214 @@
+package edu.whimc.observationdisplayer;
+
+import java.lang.reflect.Proxy;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gmail.filoghost.holographicdisplays.api.Hologram;
+import com.gmail.filoghost.holographicdisplays.api.handler.TouchHandler;
+import com.gmail.filoghost.holographicdisplays.api.line.ItemLine;
+import com.gmail.filoghost.holographicdisplays.api.line.TextLine;
+
+/**
+ * Compares spawning and re-rendering an observation's hologram the way {@code createHologram} used to,
+ * formatting the dates and allocating a sign item and touch handler every time, with the shipped
+ * {@link Observation} reusing its rendered lines and only changing the lines that differ.
+ * Holograms need Holographic Displays running, so both sides fill a stand-in hologram that keeps
+ * the text it is given.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HologramTextBenchmark {
+
+    /** How dates were formatted before, one shared formatter called on every spawn. */
+    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("MMMM d yyyy, h:mm a z");
+
+    @Param({ "false", "true" })
+    public boolean expiring;
+
+    private String text;
+    private String playerName;
+    private Location viewLoc;
+    private Timestamp timestamp;
+    private Timestamp expiration;
+    private Timestamp otherExpiration;
+
+    /** The expiration the old hologram was last rendered with. */
+    private Timestamp beforeExpiration;
+
+    private Hologram oldHologram;
+
+    private Observation observation;
+    private Hologram hologram;
+
+    @Setup
+    public void setUp() {
+        this.text = "&aThe &lsky&r is &9blue&r at this height, and the &cground&r is red";
+        this.playerName = "Poi";
+        this.viewLoc = new Location(null, 100, 64, -200, 90, 10);
+        this.timestamp = new Timestamp(System.currentTimeMillis());
+        this.expiration = this.expiring ? new Timestamp(this.timestamp.getTime() + TimeUnit.DAYS.toMillis(7)) : null;
+        this.otherExpiration = new Timestamp(this.timestamp.getTime() + TimeUnit.DAYS.toMillis(14));
+        this.beforeExpiration = this.expiration;
+
+        this.observation = new Observation(null, 1, this.timestamp, this.playerName, this.viewLoc,
+                this.text, this.expiration, false, false);
+        this.hologram = newHologram();
+        this.observation.createHologram(this.hologram);
+        this.oldHologram = newHologram();
+        createHologramBefore(this.oldHologram, this.beforeExpiration);
+    }
+
+    /** A hologram spawning, as players come into range with lazy holograms. */
+    @Benchmark
+    public Hologram spawnBefore() {
+        Hologram holo = newHologram();
+        createHologramBefore(holo, this.expiration);
+        return holo;
+    }
+
+    @Benchmark
+    public Hologram spawnAfter() {
+        Hologram holo = newHologram();
+        this.observation.deleteHologramOnly();
+        this.observation.createHologram(holo);
+        return holo;
+    }
+
+    /** Changing the expiration of an observation whose hologram is showing. */
+    @Benchmark
+    public Hologram reRenderBefore() {
+        this.beforeExpiration = this.beforeExpiration == this.otherExpiration ? this.expiration : this.otherExpiration;
+        this.oldHologram.delete();
+        this.oldHologram = newHologram();
+        createHologramBefore(this.oldHologram, this.beforeExpiration);
+        return this.oldHologram;
+    }
+
+    @Benchmark
+    public Hologram reRenderAfter() {
+        Timestamp current = this.observation.getExpiration();
+        this.observation.setExpiration(current == this.otherExpiration ? this.expiration : this.otherExpiration);
+        this.observation.reRender();
+        return this.hologram;
+    }
+
+    /**
+     * {@code createHologram} as it was before the lines were cached.
+     */
+    private void createHologramBefore(Hologram holo, Timestamp expiration) {
+        OldObservationClick clickListener = new OldObservationClick(this.viewLoc);
+
+        holo.appendItemLine(new ItemStack(Material.OAK_SIGN))
+                .setTouchHandler(clickListener);
+        holo.appendTextLine(ChatColor.translateAlternateColorCodes('&', this.text))
+                .setTouchHandler(clickListener);
+        holo.appendTextLine(ChatColor.GRAY + this.playerName + " - " + getDateBefore(this.timestamp))
+                .setTouchHandler(clickListener);
+
+        if (expiration != null) {
+            holo.appendTextLine(ChatColor.GRAY + "Expires " + getDateBefore(expiration))
+                    .setTouchHandler(clickListener);
+        }
+    }
+
+    private static String getDateBefore(Timestamp timestamp) {
+        return DATE_FORMAT.format(new Date(timestamp.getTime()));
+    }
+
+    private static class OldObservationClick implements TouchHandler {
+
+        private Location loc;
+
+        public OldObservationClick(Location loc) {
+            this.loc = loc;
+        }
+
+        @Override
+        public void onTouch(Player player) {
+            player.teleport(loc);
+        }
+    }
+
+    /**
+     * A hologram that keeps the text of its lines and ignores everything else.
+     */
+    private static Hologram newHologram() {
+        List<Object> lines = new ArrayList<>();
+        return (Hologram) Proxy.newProxyInstance(Hologram.class.getClassLoader(), new Class<?>[] { Hologram.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "appendItemLine":
+                        lines.add(args[0]);
+                        return newLine(ItemLine.class, lines, args[0]);
+                    case "appendTextLine":
+                        lines.add(args[0]);
+                        return newLine(TextLine.class, lines, args[0]);
+                    case "insertTextLine":
+                        lines.add((Integer) args[0], args[1]);
+                        return newLine(TextLine.class, lines, args[1]);
+                    case "delete":
+                        lines.clear();
+                        return null;
+                    case "size":
+                        return lines.size();
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return null;
+                    }
+                });
+    }
+
+    private static <T> T newLine(Class<T> type, List<Object> lines, Object initial) {
+        Object[] content = { initial };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "setText":
+                        lines.set(lines.indexOf(content[0]), args[0]);
+                        content[0] = args[0];
+                        return null;
+                    case "getText":
+                        return content[0];
+                    case "removeLine":
+                        lines.remove(content[0]);
+                        return null;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return null;
+                    }
+                }));
+    }
+
+}
@@ -0,0 +1,197 @@
+package edu.whimc.observationdisplayer;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link ObservationRegistry} against the single list observations used to be kept in,
+ * with 10k and 100k observations loaded.
+ * Observations need a running server to create, so the registry holds stand-in entries with a
+ * real {@link Location} in one of a few stand-in worlds. Everything else is the shipped registry,
+ * including its spatial index, sorted ids and snapshot invalidation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObservationLookupBenchmark {
+
+    private static final int PLAYERS = 200;
+    private static final int WORLDS = 4;
+    /** Observations are spread over a square of this many blocks on each side. */
+    private static final int SPREAD = 4096;
+    /** Number of precomputed random lookups, a power of two so they can be cycled with a mask. */
+    private static final int LOOKUPS = 1024;
+
+    @Param({ "10000", "100000" })
+    public int observations;
+
+    private World[] worlds;
+    private Entry[] entries;
+    private List<Entry> list;
+    private ObservationRegistry<Entry> registry;
+
+    private int[] lookupIds;
+    private String[] lookupPlayers;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        this.worlds = new World[WORLDS];
+        for (int ind = 0; ind < WORLDS; ind++) {
+            this.worlds[ind] = newWorld(new UUID(0, ind));
+        }
+
+        this.entries = new Entry[this.observations];
+        this.list = new ArrayList<>();
+        this.registry = new ObservationRegistry<>();
+        for (int ind = 0; ind < this.observations; ind++) {
+            Location loc = new Location(this.worlds[random.nextInt(WORLDS)],
+                    random.nextInt(SPREAD), 64, random.nextInt(SPREAD));
+            Entry entry = new Entry(ind + 1, "Player" + random.nextInt(PLAYERS), loc);
+            this.entries[ind] = entry;
+            this.list.add(entry);
+            this.registry.add(entry);
+        }
+
+        this.lookupIds = new int[LOOKUPS];
+        this.lookupPlayers = new String[LOOKUPS];
+        for (int ind = 0; ind < LOOKUPS; ind++) {
+            this.lookupIds[ind] = 1 + random.nextInt(this.observations);
+            // Commands take names in whatever case the sender typed
+            this.lookupPlayers[ind] = "PLAYER" + random.nextInt(PLAYERS);
+        }
+    }
+
+    private int nextLookup() {
+        this.next = (this.next + 1) & (LOOKUPS - 1);
+        return this.next;
+    }
+
+    @Benchmark
+    public Entry getByIdList() {
+        int id = this.lookupIds[nextLookup()];
+        for (Entry entry : this.list) {
+            if (entry.id == id) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public Entry getByIdRegistry() {
+        return this.registry.get(this.lookupIds[nextLookup()]);
+    }
+
+    @Benchmark
+    public List<Entry> queryPlayerWorldList() {
+        int ind = nextLookup();
+        String player = this.lookupPlayers[ind];
+        World world = this.worlds[ind % WORLDS];
+        return this.list.stream()
+                .filter(v -> v.loc.getWorld().getName().equalsIgnoreCase(world.getName()))
+                .filter(v -> v.player.equalsIgnoreCase(player))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Entry> queryPlayerWorldRegistry() {
+        int ind = nextLookup();
+        return this.registry.query(this.lookupPlayers[ind], this.worlds[ind % WORLDS]);
+    }
+
+    /** Removing and re-adding an observation, as deleting and reactivating one does. */
+    @Benchmark
+    public boolean removeAndAddList() {
+        Entry entry = this.entries[this.lookupIds[nextLookup()] - 1];
+        boolean removed = this.list.remove(entry);
+        this.list.add(entry);
+        return removed;
+    }
+
+    @Benchmark
+    public boolean removeAndAddRegistry() {
+        Entry entry = this.entries[this.lookupIds[nextLookup()] - 1];
+        boolean removed = this.registry.remove(entry);
+        this.registry.add(entry);
+        return removed;
+    }
+
+    /**
+     * A world that only knows its name and UID, which is all the registry and the old list read.
+     */
+    private static World newWorld(UUID uid) {
+        String name = "world-" + uid.getLeastSignificantBits();
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] { World.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getUID":
+                        return uid;
+                    case "getName":
+                    case "toString":
+                        return name;
+                    case "hashCode":
+                        return uid.hashCode();
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     * Stands in for an observation, holding the values the registry indexes it by.
+     */
+    public static class Entry implements RegistryEntry {
+
+        private final int id;
+        private final String player;
+        private final Location loc;
+
+        private Entry(int id, String player, Location loc) {
+            this.id = id;
+            this.player = player;
+            this.loc = loc;
+        }
+
+        @Override
+        public int getId() {
+            return this.id;
+        }
+
+        @Override
+        public String getPlayer() {
+            return this.player;
+        }
+
+        @Override
+        public Location getViewLocation() {
+            return this.loc;
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+package edu.whimc.observationdisplayer;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Min-heap of observations ordered by expiration time.
+ * When an observation's expiration changes or the observation is removed, its old entry is not
+ * searched for; it is left in the heap and skipped once it reaches the top.
+ * The heap is compacted when those stale entries start to outnumber the live ones.
+ */
+public class ExpiryScheduler {
+
+    private final PriorityQueue<Entry> heap = new PriorityQueue<>();
+    /** The live heap entry of each scheduled observation. */
+    private final Map<Observation, Entry> current = new HashMap<>();
+    private int stale = 0;
+
+    /**
+     * Schedules an observation to expire at its current expiration time.
+     * Any previously scheduled time for the observation becomes stale.
+     * @param obs Observation to schedule
+     */
+    public void schedule(Observation obs) {
+        invalidate(obs);
+
+        Timestamp expiration = obs.getExpiration();
+        if (expiration == null || obs.isTemporary()) {
+            return;
+        }
+
+        Entry entry = new Entry(obs, expiration.getTime());
+        this.current.put(obs, entry);
+        this.heap.add(entry);
+    }
+
+    /**
+     * Unschedules an observation, either because it was removed or because its expiration changed.
+     * @param obs Observation that may have been scheduled
+     */
+    public void invalidate(Observation obs) {
+        if (this.current.remove(obs) == null) {
+            return;
+        }
+
+        this.stale++;
+        if (this.stale > 64 && this.stale > this.heap.size() / 2) {
+            this.heap.removeIf(v -> !isLive(v));
+            this.stale = 0;
+        }
+    }
+
+    /**
+     * Removes every observation that is due from the heap.
+     * @param now Current time in milliseconds
+     * @return The observations that have expired
+     */
+    public List<Observation> pollExpired(long now) {
+        List<Observation> expired = new ArrayList<>();
+        Entry head;
+        while ((head = this.heap.peek()) != null && head.due <= now) {
+            this.heap.poll();
+            if (isLive(head)) {
+                this.current.remove(head.obs);
+                expired.add(head.obs);
+            } else {
+                this.stale--;
+            }
+        }
+        return expired;
+    }
+
+    public int size() {
+        return this.current.size();
+    }
+
+    private boolean isLive(Entry entry) {
+        return this.current.get(entry.obs) == entry;
+    }
+
+    private static class Entry implements Comparable<Entry> {
+
+        private final Observation obs;
+        private final long due;
+
+        private Entry(Observation obs, long due) {
+            this.obs = obs;
+            this.due = due;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Long.compare(this.due, other.due);
+        }
+    }
+
+}
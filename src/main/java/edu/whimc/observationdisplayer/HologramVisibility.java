@@ -0,0 +1,114 @@
+package edu.whimc.observationdisplayer;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+/**
+ * Decides when observation holograms exist.
+ * By default every registered observation gets a hologram right away. In lazy mode, holograms
+ * are only created while a player is within the view distance of an observation's chunk,
+ * and are deleted again once every player has left.
+ */
+public class HologramVisibility implements Runnable {
+
+    private final ObservationDisplayer plugin;
+    private final boolean lazy;
+    private final int viewDistance;
+    private final long interval;
+
+    /** Observations whose hologram was spawned by a proximity check. */
+    private Set<Observation> shown = new HashSet<>();
+
+    public HologramVisibility(ObservationDisplayer plugin) {
+        this.plugin = plugin;
+        this.lazy = plugin.getConfig().getBoolean("holograms.lazy", false);
+        this.viewDistance = Math.max(0, plugin.getConfig().getInt("holograms.view-distance", 4));
+        this.interval = Math.max(1, plugin.getConfig().getLong("holograms.proximity-interval-ticks", 20));
+    }
+
+    /**
+     * Starts the scheduled proximity pass if lazy mode is enabled.
+     */
+    public void start() {
+        if (this.lazy) {
+            Bukkit.getScheduler().runTaskTimer(this.plugin, this.plugin.getProfiler().wrap("holograms.proximity", this),
+                    this.interval, this.interval);
+        }
+    }
+
+    public boolean isLazy() {
+        return this.lazy;
+    }
+
+    /**
+     * Called when an observation is registered.
+     * @param obs The new observation
+     */
+    public void track(Observation obs) {
+        if (!this.lazy) {
+            obs.spawnHologram();
+            return;
+        }
+
+        if (isNearPlayer(obs)) {
+            obs.spawnHologram();
+            this.shown.add(obs);
+        } else {
+            // New observations may already have been shown to their creator
+            obs.deleteHologramOnly();
+        }
+    }
+
+    /**
+     * Called when an observation is removed.
+     * @param obs The removed observation
+     */
+    public void untrack(Observation obs) {
+        this.shown.remove(obs);
+    }
+
+    @Override
+    public void run() {
+        Set<Observation> visible = new HashSet<>();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            Location loc = player.getLocation();
+            Observation.queryChunks(loc.getWorld(),
+                    SpatialIndex.floorChunk(loc.getX()), SpatialIndex.floorChunk(loc.getZ()),
+                    this.viewDistance, visible);
+        }
+
+        for (Observation obs : visible) {
+            if (!this.shown.contains(obs)) {
+                obs.spawnHologram();
+            }
+        }
+
+        for (Observation obs : this.shown) {
+            if (!visible.contains(obs)) {
+                obs.deleteHologramOnly();
+            }
+        }
+
+        this.shown = visible;
+    }
+
+    private boolean isNearPlayer(Observation obs) {
+        Location loc = obs.getViewLocation();
+        int chunkX = SpatialIndex.floorChunk(loc.getX());
+        int chunkZ = SpatialIndex.floorChunk(loc.getZ());
+
+        for (Player player : loc.getWorld().getPlayers()) {
+            Location playerLoc = player.getLocation();
+            if (Math.abs(SpatialIndex.floorChunk(playerLoc.getX()) - chunkX) <= this.viewDistance &&
+                    Math.abs(SpatialIndex.floorChunk(playerLoc.getZ()) - chunkZ) <= this.viewDistance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
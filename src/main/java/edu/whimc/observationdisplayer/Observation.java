@@ -3,8 +3,10 @@ package edu.whimc.observationdisplayer;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -13,18 +15,24 @@ import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 
 import com.gmail.filoghost.holographicdisplays.api.Hologram;
 import com.gmail.filoghost.holographicdisplays.api.HologramsAPI;
 import com.gmail.filoghost.holographicdisplays.api.handler.TouchHandler;
+import com.gmail.filoghost.holographicdisplays.api.line.TextLine;
 
 import edu.whimc.observationdisplayer.utils.Utils;
 
-public class Observation {
+public class Observation implements RegistryEntry {
 
-    private static List<Observation> observations = new ArrayList<>();
+    /** Shared by every hologram's first line. Never modify it. */
+    private static final ItemStack SIGN = new ItemStack(Material.OAK_SIGN);
+
+    private static final ObservationRegistry<Observation> registry = new ObservationRegistry<>();
+    private static final ExpiryScheduler expiry = new ExpiryScheduler();
 
     private ObservationDisplayer plugin;
     private int id;
@@ -34,6 +42,12 @@ public class Observation {
     private Location viewLoc;
     private String observation;
     private Hologram hologram;
+    /** The hologram's text lines below the sign and the text each one currently shows. */
+    private final List<TextLine> textLines = new ArrayList<>();
+    private final List<String> renderedText = new ArrayList<>();
+    /** The text every line should show, or null if it has to be rendered again. */
+    private List<String> lines;
+    private ObservationClick clickListener;
     private Timestamp expiration;
     private boolean temporary;
 
@@ -42,42 +56,66 @@ public class Observation {
     public static void createObservation(ObservationDisplayer plugin, Player player, Location viewLoc,
             String observation, Timestamp expiration) {
         Timestamp timestamp = new Timestamp(System.currentTimeMillis());
-        Observation obs = new Observation(plugin, -1, timestamp, player.getName(), viewLoc, observation, expiration, false, true);
-        observations.add(obs);
+        plugin.getMetrics().counter("observations.created").increment();
+        // New observations are registered once the database has given them an id
+        new Observation(plugin, -1, timestamp, player.getName(), viewLoc, observation, expiration, false, true);
     }
 
     public static void loadTemporaryObservation(ObservationDisplayer plugin, int id, Timestamp timestamp,
             String playerName, Location viewLoc, String observation, Timestamp expiration) {
         Observation obs = new Observation(plugin, id, timestamp, playerName, viewLoc, observation, expiration, true, false);
-        observations.add(obs);
+        plugin.getMetrics().counter("observations.reactivated").increment();
+        register(obs);
     }
 
     public static void loadObservation(ObservationDisplayer plugin, int id, Timestamp timestamp,
             String playerName, Location viewLoc, String observation, Timestamp expiration) {
         Observation obs = new Observation(plugin, id, timestamp, playerName, viewLoc, observation, expiration, false, false);
-        observations.add(obs);
-    }
-
-    public static void scanForExpiredObservations(ObservationDisplayer plugin) {
-        Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, () -> {
-            long count = observations.stream()
-                    .filter(v -> v.getExpiration() != null)
-                    .filter(v -> Instant.now().isAfter(v.getExpiration().toInstant()))
-                    .filter(v -> !v.isTemporary())
-                    .collect(Collectors.toList())
-                    .stream()
-                    .peek(Observation::deleteObservation)
-                    .count();
-            if (count > 0) {
-                plugin.getQueryer().makeExpiredObservationsInactive(dbCount -> {
-                    Utils.debug("Removed " + count + " expired observation(s). (" + dbCount + ") from database");
-                });
+        register(obs);
+    }
+
+    private static void register(Observation obs) {
+        registry.add(obs);
+        expiry.schedule(obs);
+        obs.plugin.getHologramVisibility().track(obs);
+    }
+
+    /**
+     * Removes every loaded observation and hologram in a world without changing the database.
+     * @param world World being unloaded
+     * @return The number of observations removed
+     */
+    public static int unloadWorld(World world) {
+        List<Observation> toRemove = registry.inWorld(world);
+        toRemove.forEach(Observation::deleteObservation);
+        return toRemove.size();
+    }
+
+    /**
+     * Starts removing observations as they expire.
+     * Each check only looks at the observations that are due, so it runs every second.
+     */
+    public static void startExpiryScheduler(ObservationDisplayer plugin) {
+        Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, plugin.getProfiler().wrap("expiry.poll", () -> {
+            List<Observation> expired = expiry.pollExpired(System.currentTimeMillis());
+            if (expired.isEmpty()) {
+                return;
             }
 
-        }, 20 * 60, 20 * 60);
+            expired.forEach(Observation::deleteObservation);
+            plugin.getMetrics().counter("observations.expired").add(expired.size());
+            int[] ids = expired.stream().mapToInt(Observation::getId).toArray();
+            plugin.getQueryer().makeObservationsInactive(ids, () -> {
+                Utils.debug("Removed " + ids.length + " expired observation(s) from database");
+            });
+        }), 20, 20);
     }
 
-    private Observation(ObservationDisplayer plugin, int id, Timestamp timestamp, String playerName,
+    /**
+     * Observations that are not new only use the plugin once they are registered,
+     * so benchmarks can create unregistered ones without a server.
+     */
+    Observation(ObservationDisplayer plugin, int id, Timestamp timestamp, String playerName,
             Location viewLoc, String observation, Timestamp expiration, boolean temporary, boolean isNew) {
         this.plugin = plugin;
         this.timestamp = timestamp;
@@ -87,46 +125,133 @@ public class Observation {
         this.observation = observation;
         this.expiration = expiration;
         this.temporary = temporary;
+        this.clickListener = new ObservationClick(viewLoc);
 
         if (!isNew) {
             this.id = id;
-            createHologram();
             return;
         }
 
+        // Journaled observations are safe locally, so they can be shown before the database assigns an id
+        if (plugin.getQueryer().isJournaling()) {
+            createHologram();
+        }
+
         plugin.getQueryer().storeNewObservation(this, newId -> {
             this.id = newId;
-            createHologram();
+            register(this);
         });
     }
 
     private void createHologram() {
-        Hologram holo = HologramsAPI.createHologram(plugin, holoLoc);
-        ObservationClick clickListener = new ObservationClick(viewLoc);
+        createHologram(HologramsAPI.createHologram(plugin, holoLoc));
+    }
 
-        holo.appendItemLine(new ItemStack(Material.OAK_SIGN))
-                .setTouchHandler(clickListener);
-        holo.appendTextLine(ChatColor.translateAlternateColorCodes('&', observation))
-                .setTouchHandler(clickListener);
-        holo.appendTextLine(ChatColor.GRAY + playerName + " - " + Utils.getDate(timestamp))
+    /**
+     * Fills a new, empty hologram with the sign and this observation's lines.
+     */
+    void createHologram(Hologram holo) {
+        holo.appendItemLine(SIGN)
                 .setTouchHandler(clickListener);
+        this.hologram = holo;
 
-        if (this.expiration != null) {
-            holo.appendTextLine(ChatColor.GRAY + "Expires " + Utils.getDate(expiration))
-                    .setTouchHandler(clickListener);
+        this.textLines.clear();
+        this.renderedText.clear();
+        for (String text : getLines()) {
+            insertLine(this.textLines.size(), text);
         }
+    }
 
-        if (this.temporary) {
-            holo.appendTextLine(ChatColor.DARK_GRAY + "*temporary*")
-                    .setTouchHandler(clickListener);
+    /**
+     * @return The text of each line shown below the sign, rendered once until the observation changes
+     */
+    private List<String> getLines() {
+        if (this.lines == null) {
+            this.lines = renderLines(this.observation, this.playerName, this.timestamp, this.expiration, this.temporary);
         }
+        return this.lines;
+    }
 
-        this.hologram = holo;
+    /**
+     * Renders the text of the lines shown below an observation's sign.
+     */
+    static List<String> renderLines(String observation, String playerName, Timestamp timestamp,
+            Timestamp expiration, boolean temporary) {
+        List<String> lines = new ArrayList<>(4);
+        lines.add(ChatColor.translateAlternateColorCodes('&', observation));
+        lines.add(ChatColor.GRAY + playerName + " - " + Utils.getDate(timestamp));
+
+        if (expiration != null) {
+            lines.add(ChatColor.GRAY + "Expires " + Utils.getDate(expiration));
+        }
+
+        if (temporary) {
+            lines.add(ChatColor.DARK_GRAY + "*temporary*");
+        }
+        return Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * Brings the hologram's text lines in line with the observation, touching only the lines that differ.
+     * Lines are optional but always in the same order, so a line that is missing on one side is
+     * inserted or removed and any other difference is changed in place.
+     */
+    private void updateLines(List<String> wanted) {
+        int ind = 0;
+        while (ind < wanted.size() && ind < this.renderedText.size()) {
+            String current = this.renderedText.get(ind);
+            String text = wanted.get(ind);
+            if (current.equals(text)) {
+                ind++;
+            } else if (wanted.size() > this.renderedText.size() && current.equals(wanted.get(ind + 1))) {
+                insertLine(ind, text);
+            } else if (this.renderedText.size() > wanted.size() && this.renderedText.get(ind + 1).equals(text)) {
+                removeLine(ind);
+            } else {
+                this.textLines.get(ind).setText(text);
+                this.renderedText.set(ind, text);
+                ind++;
+            }
+        }
+
+        while (this.renderedText.size() > wanted.size()) {
+            removeLine(this.renderedText.size() - 1);
+        }
+        while (this.renderedText.size() < wanted.size()) {
+            insertLine(this.renderedText.size(), wanted.get(this.renderedText.size()));
+        }
+    }
+
+    private void insertLine(int ind, String text) {
+        // The sign is always the hologram's first line
+        TextLine line = ind == this.textLines.size()
+                ? this.hologram.appendTextLine(text)
+                : this.hologram.insertTextLine(ind + 1, text);
+        line.setTouchHandler(this.clickListener);
+        this.textLines.add(ind, line);
+        this.renderedText.add(ind, text);
+    }
+
+    private void removeLine(int ind) {
+        this.textLines.remove(ind).removeLine();
+        this.renderedText.remove(ind);
+    }
+
+    /**
+     * Creates this observation's hologram if it does not have one.
+     */
+    public void spawnHologram() {
+        if (this.hologram == null) {
+            createHologram();
+        }
     }
 
     public void reRender() {
-        deleteHologramOnly();
-        createHologram();
+        // Holograms that are not spawned will be rendered with the new values when they are
+        if (this.hologram == null) {
+            return;
+        }
+        updateLines(getLines());
     }
 
     private class ObservationClick implements TouchHandler {
@@ -143,26 +268,52 @@ public class Observation {
         }
     }
 
+    /**
+     * @return An immutable snapshot of every loaded observation, safe to use from any thread
+     */
     public static List<Observation> getObservations() {
-        return observations;
+        return registry.snapshot();
+    }
+
+    /**
+     * @see ObservationRegistry#query(String, World)
+     */
+    public static List<Observation> getObservations(String player, World world) {
+        return registry.query(player, world);
+    }
+
+    public static int getObservationCount() {
+        return registry.size();
+    }
+
+    /**
+     * @see ObservationRegistry#getVersion()
+     */
+    public static long getObservationsVersion() {
+        return registry.getVersion();
     }
 
     public static Iterator<Observation> getObservationsIterator() {
-        return observations.iterator();
+        return registry.snapshot().iterator();
     }
 
     public static Observation getObservation(int id) {
-        for (Observation obs : observations) {
-            if (obs.getId() == id) return obs;
-        }
+        return registry.get(id);
+    }
 
-        return null;
+    public static List<Observation> queryRadius(World world, double x, double y, double z, double radius) {
+        return registry.queryRadius(world, x, y, z, radius);
+    }
+
+    public static void queryChunks(World world, int chunkX, int chunkZ, int radius, Collection<Observation> res) {
+        registry.queryChunks(world, chunkX, chunkZ, radius, res);
     }
 
     public Hologram getHologram() {
         return this.hologram;
     }
 
+    @Override
     public String getPlayer() {
         return this.playerName;
     }
@@ -171,6 +322,7 @@ public class Observation {
         return this.holoLoc;
     }
 
+    @Override
     public Location getViewLocation() {
         return this.viewLoc;
     }
@@ -179,6 +331,7 @@ public class Observation {
         return this.observation;
     }
 
+    @Override
     public int getId() {
         return this.id;
     }
@@ -197,6 +350,10 @@ public class Observation {
 
     public void setExpiration(Timestamp timestamp) {
         this.expiration = timestamp;
+        this.lines = null;
+        if (registry.get(this.id) == this) {
+            expiry.schedule(this);
+        }
     }
 
     public boolean isTemporary() {
@@ -221,36 +378,34 @@ public class Observation {
 
     public void deleteAndSetInactive(Runnable callback) {
         plugin.getQueryer().makeSingleObservationInactive(this.id, callback);
+        plugin.getMetrics().counter("observations.deleted").increment();
         deleteObservation();
     }
 
     public void deleteObservation() {
         deleteHologramOnly();
-        observations.remove(this);
+        registry.remove(this);
+        expiry.invalidate(this);
+        this.plugin.getHologramVisibility().untrack(this);
     }
 
     public void deleteHologramOnly() {
         if (this.hologram != null) {
             this.hologram.delete();
             this.hologram = null;
+            this.textLines.clear();
+            this.renderedText.clear();
         }
     }
 
     public static List<String> getObservationsTabComplete(String hint) {
-        return observations.stream()
-                .filter(v -> Integer.toString(v.getId()).startsWith(hint))
-                .sorted(Comparator.comparing(Observation::getId))
-                .map(v -> Integer.toString(v.getId()))
+        return registry.getIdsWithPrefix(hint).stream()
+                .map(String::valueOf)
                 .collect(Collectors.toList());
     }
 
     public static List<String> getPlayersTabComplete(String hint) {
-        Set<String> players = observations.stream()
-                .map(Observation::getPlayer)
-                .distinct()
-                .filter(v -> v.toLowerCase().startsWith(hint.toLowerCase()))
-                .sorted()
-                .collect(Collectors.toSet());
+        Set<String> players = new LinkedHashSet<>(registry.getPlayerNames(hint));
         players.addAll(Bukkit.getOnlinePlayers().stream()
                 .map(Player::getName)
                 .collect(Collectors.toSet()));
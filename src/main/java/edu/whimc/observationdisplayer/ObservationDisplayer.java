@@ -1,15 +1,27 @@
 package edu.whimc.observationdisplayer;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.bukkit.Bukkit;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.permissions.Permission;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import com.gmail.filoghost.holographicdisplays.api.Hologram;
+import com.gmail.filoghost.holographicdisplays.api.HologramsAPI;
+
 import edu.whimc.observationdisplayer.commands.ObserveCommand;
 import edu.whimc.observationdisplayer.commands.observations.ObservationsCommand;
+import edu.whimc.observationdisplayer.utils.Metrics;
 import edu.whimc.observationdisplayer.utils.Queryer;
+import edu.whimc.observationdisplayer.utils.TickProfiler;
 import edu.whimc.observationdisplayer.utils.Utils;
 
 public class ObservationDisplayer extends JavaPlugin implements CommandExecutor {
@@ -17,6 +29,9 @@ public class ObservationDisplayer extends JavaPlugin implements CommandExecutor
     public static final String PERM_PREFIX = "whimc-observations";
 
     private Queryer queryer;
+    private Metrics metrics;
+    private TickProfiler profiler;
+    private HologramVisibility hologramVisibility;
 
     @Override
     public void onEnable() {
@@ -25,19 +40,26 @@ public class ObservationDisplayer extends JavaPlugin implements CommandExecutor
         saveConfig();
         Utils.setDebug(getConfig().getBoolean("debug"));
 
+        profiler = new TickProfiler(this);
+        profiler.start();
+        hologramVisibility = new HologramVisibility(this);
+        metrics = new Metrics(this);
 
         queryer = new Queryer(this, q -> {
             if (q == null) {
-                this.getLogger().severe("Could not create MySQL connection! Disabling plugin...");
+                this.getLogger().severe("Could not connect to the configured database! Disabling plugin...");
                 getCommand("observations").setExecutor(this);
                 getCommand("observe").setExecutor(this);
             } else {
                 Utils.setDebugPrefix(getDescription().getName());
                 Utils.debug("Starting to load observations...");
-                q.loadObservations(() -> {
-                    Utils.debug("Finished loading observations!");
-                });
-                Observation.scanForExpiredObservations(this);
+                loadWorlds(q);
+                Bukkit.getPluginManager().registerEvents(new WorldListener(this), this);
+                Observation.startExpiryScheduler(this);
+                q.startExpirySweep();
+                hologramVisibility.start();
+                registerGauges(q);
+                metrics.startDump();
 
                 Permission parent = new Permission(PERM_PREFIX + ".*");
                 Bukkit.getPluginManager().addPermission(parent);
@@ -55,10 +77,66 @@ public class ObservationDisplayer extends JavaPlugin implements CommandExecutor
         });
     }
 
+    @Override
+    public void onDisable() {
+        long start = System.nanoTime();
+
+        // Stop every timer first so nothing new is queued while shutting down
+        Bukkit.getScheduler().cancelTasks(this);
+
+        Collection<Hologram> holograms = new ArrayList<>(HologramsAPI.getHolograms(this));
+        holograms.forEach(Hologram::delete);
+        getLogger().info("Deleted " + holograms.size() + " hologram(s) in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+
+        if (queryer != null) {
+            queryer.close(Math.max(1, getConfig().getLong("shutdown.timeout-seconds", 15)) * 1000);
+        }
+        getLogger().info("Shut down in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    /**
+     * Loads the observations of every world that is currently loaded.
+     * Worlds that load later are handled by {@link WorldListener}.
+     */
+    private void loadWorlds(Queryer q) {
+        List<World> worlds = Bukkit.getWorlds();
+        AtomicInteger remaining = new AtomicInteger(worlds.size());
+        for (World world : worlds) {
+            q.loadWorldObservations(world.getName(), count -> {
+                Utils.debug("Loaded " + count + " observation(s) in world '" + world.getName() + "'");
+                if (remaining.decrementAndGet() == 0) {
+                    Utils.debug("Finished loading observations!");
+                }
+            });
+        }
+    }
+
+    private void registerGauges(Queryer q) {
+        metrics.gauge("observations.loaded", Observation::getObservationCount);
+        metrics.gauge("holograms.live", () -> HologramsAPI.getHolograms(this).size());
+        metrics.gauge("db.queries-pending", () -> q.getActiveQueries() + q.getQueuedQueries());
+        metrics.gauge("db.inserts-pending", q::getPendingInserts);
+        metrics.gauge("db.deactivations-pending", q::getPendingDeactivations);
+        metrics.gauge("db.offline-writes", () -> q.getOfflineQueue().size());
+    }
+
     public Queryer getQueryer() {
         return queryer;
     }
 
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public TickProfiler getProfiler() {
+        return profiler;
+    }
+
+    public HologramVisibility getHologramVisibility() {
+        return hologramVisibility;
+    }
+
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         Utils.msg(sender, "&cThis plugin is disabled because it was unable to connect to the configured database. " +
@@ -0,0 +1,308 @@
+package edu.whimc.observationdisplayer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.bukkit.World;
+
+import edu.whimc.observationdisplayer.utils.IntObjectMap;
+
+/**
+ * Holds every loaded observation, keyed by id and iterable in the order they were added.
+ * Observations are only added and removed on the main thread, but the registry may be read
+ * from any thread. Iteration always happens over an immutable snapshot that is rebuilt
+ * lazily after the registry changes, so readers never see a collection being modified.
+ * @param <T> Type of the registered observations
+ */
+public class ObservationRegistry<T extends RegistryEntry> {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final IntObjectMap<T> byId = new IntObjectMap<>();
+    private final SpatialIndex<T> spatial = new SpatialIndex<>();
+    /** Every id in ascending order, so ids starting with some digits can be found by range. */
+    private final TreeSet<Integer> sortedIds = new TreeSet<>();
+    /** Observations keyed by the lower-cased name of the player who made them, sorted for prefix lookups. */
+    private final TreeMap<String, IntObjectMap<T>> byPlayer = new TreeMap<>();
+    /** Observations keyed by the UUID of their world. */
+    private final Map<UUID, IntObjectMap<T>> byWorld = new HashMap<>();
+
+    /** Latest snapshot of the registry, or null if it has changed since the last one was taken. */
+    private volatile List<T> snapshot = Collections.emptyList();
+    /** Incremented every time the registry changes. */
+    private volatile long version = 0;
+
+    /**
+     * Adds an observation, replacing any observation that had the same id.
+     * @param obs Observation to add
+     */
+    public void add(T obs) {
+        this.lock.writeLock().lock();
+        try {
+            T previous = this.byId.put(obs.getId(), obs);
+            if (previous != null) {
+                this.spatial.remove(previous);
+                unindex(previous);
+            }
+            this.spatial.add(obs);
+            index(obs);
+            this.snapshot = null;
+            this.version++;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an observation if it is the one registered under its id.
+     * @param obs Observation to remove
+     * @return Whether the observation was removed
+     */
+    public boolean remove(T obs) {
+        this.lock.writeLock().lock();
+        try {
+            if (this.byId.get(obs.getId()) != obs) {
+                return false;
+            }
+            this.byId.remove(obs.getId());
+            this.spatial.remove(obs);
+            unindex(obs);
+            this.snapshot = null;
+            this.version++;
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return A number that changes whenever an observation is added or removed,
+     *         so results derived from the registry can tell when they are out of date
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    public T get(int id) {
+        this.lock.readLock().lock();
+        try {
+            return this.byId.get(id);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(int id) {
+        this.lock.readLock().lock();
+        try {
+            return this.byId.containsKey(id);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.byId.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds every observation whose view location is within a radius of a point.
+     * @see SpatialIndex#queryRadius(World, double, double, double, double)
+     */
+    public List<T> queryRadius(World world, double x, double y, double z, double radius) {
+        this.lock.readLock().lock();
+        try {
+            return this.spatial.queryRadius(world, x, y, z, radius);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds every observation in a square of chunks.
+     * @see SpatialIndex#queryChunks(World, int, int, int, Collection)
+     */
+    public void queryChunks(World world, int chunkX, int chunkZ, int radius, Collection<T> res) {
+        this.lock.readLock().lock();
+        try {
+            this.spatial.queryChunks(world, chunkX, chunkZ, radius, res);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Every observation in a world
+     */
+    public List<T> inWorld(World world) {
+        return query(null, world);
+    }
+
+    /**
+     * Finds the observations made by a player and/or in a world.
+     * Only the smaller of the matching player and world indexes is walked.
+     * @param player Name of the player, case-insensitive, or null for any player
+     * @param world World of the observations, or null for any world
+     * @return The matching observations in the order they were added
+     */
+    public List<T> query(String player, World world) {
+        if (player == null && world == null) {
+            return new ArrayList<>(snapshot());
+        }
+
+        this.lock.readLock().lock();
+        try {
+            IntObjectMap<T> playerObs = player == null ? null : this.byPlayer.get(player.toLowerCase());
+            IntObjectMap<T> worldObs = world == null ? null : this.byWorld.get(world.getUID());
+            if ((player != null && playerObs == null) || (world != null && worldObs == null)) {
+                return new ArrayList<>();
+            }
+
+            IntObjectMap<T> smaller = playerObs;
+            IntObjectMap<T> other = worldObs;
+            if (smaller == null || (other != null && other.size() < smaller.size())) {
+                smaller = worldObs;
+                other = playerObs;
+            }
+
+            List<T> res = new ArrayList<>(smaller.size());
+            for (T obs : smaller) {
+                if (other == null || other.containsKey(obs.getId())) {
+                    res.add(obs);
+                }
+            }
+            return res;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the players with at least one observation whose name starts with a prefix.
+     * @param prefix Start of the name, case-insensitive
+     * @return The matching names, sorted case-insensitively
+     */
+    public List<String> getPlayerNames(String prefix) {
+        String lower = prefix.toLowerCase();
+        this.lock.readLock().lock();
+        try {
+            Collection<IntObjectMap<T>> matches = lower.isEmpty()
+                    ? this.byPlayer.values()
+                    : this.byPlayer.subMap(lower, true, lower + Character.MAX_VALUE, false).values();
+            List<String> res = new ArrayList<>(matches.size());
+            for (IntObjectMap<T> observations : matches) {
+                res.add(observations.iterator().next().getPlayer());
+            }
+            return res;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the ids whose decimal form starts with a prefix.
+     * The ids starting with "12" are 12, 120-129, 1200-1299 and so on, so each length of id is
+     * a single range of the sorted ids and the ranges come out in ascending order.
+     * @param prefix Start of the id
+     * @return The matching ids in ascending order
+     */
+    public List<Integer> getIdsWithPrefix(String prefix) {
+        this.lock.readLock().lock();
+        try {
+            if (prefix.isEmpty()) {
+                return new ArrayList<>(this.sortedIds);
+            }
+            // Ids are never written with leading zeros and never have more than 10 digits
+            if (!isDigits(prefix) || (prefix.length() > 1 && prefix.charAt(0) == '0') || prefix.length() > 10) {
+                return new ArrayList<>();
+            }
+
+            long low = Long.parseLong(prefix);
+            long high = low;
+            List<Integer> res = new ArrayList<>();
+            while (low <= Integer.MAX_VALUE) {
+                res.addAll(this.sortedIds.subSet((int) low, true, (int) Math.min(high, Integer.MAX_VALUE), true));
+                if (low == 0) {
+                    // Only the id 0 itself starts with a 0
+                    break;
+                }
+                low = low * 10;
+                high = high * 10 + 9;
+            }
+            return res;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private static boolean isDigits(String str) {
+        for (int ind = 0; ind < str.length(); ind++) {
+            if (str.charAt(ind) < '0' || str.charAt(ind) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void index(T obs) {
+        this.sortedIds.add(obs.getId());
+        this.byPlayer.computeIfAbsent(obs.getPlayer().toLowerCase(), k -> new IntObjectMap<>()).put(obs.getId(), obs);
+        this.byWorld.computeIfAbsent(obs.getViewLocation().getWorld().getUID(), k -> new IntObjectMap<>())
+                .put(obs.getId(), obs);
+    }
+
+    private void unindex(T obs) {
+        this.sortedIds.remove(obs.getId());
+        unindex(this.byPlayer, obs.getPlayer().toLowerCase(), obs);
+        unindex(this.byWorld, obs.getViewLocation().getWorld().getUID(), obs);
+    }
+
+    private static <K, T extends RegistryEntry> void unindex(Map<K, IntObjectMap<T>> index, K key, T obs) {
+        IntObjectMap<T> observations = index.get(key);
+        if (observations == null) {
+            return;
+        }
+        observations.remove(obs.getId());
+        if (observations.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * @return An immutable snapshot of every observation in insertion order
+     */
+    public List<T> snapshot() {
+        List<T> res = this.snapshot;
+        if (res != null) {
+            return res;
+        }
+
+        this.lock.readLock().lock();
+        try {
+            res = this.snapshot;
+            if (res == null) {
+                List<T> copy = new ArrayList<>(this.byId.size());
+                this.byId.forEach(copy::add);
+                res = Collections.unmodifiableList(copy);
+                this.snapshot = res;
+            }
+            return res;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package edu.whimc.observationdisplayer;
+
+import org.bukkit.Location;
+
+/**
+ * The values {@link ObservationRegistry} and {@link SpatialIndex} index an entry by.
+ * None of them may change while the entry is registered.
+ */
+public interface RegistryEntry {
+
+    int getId();
+
+    /**
+     * @return Name of the player who made the entry
+     */
+    String getPlayer();
+
+    /**
+     * @return Location the entry is indexed at, with its world set
+     */
+    Location getViewLocation();
+
+}
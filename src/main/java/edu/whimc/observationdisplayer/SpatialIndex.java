@@ -0,0 +1,155 @@
+package edu.whimc.observationdisplayer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+/**
+ * Buckets observations by world and chunk of their view location
+ * so radius queries only visit the chunks the radius overlaps.
+ * @param <T> Type of the indexed observations
+ */
+public class SpatialIndex<T extends RegistryEntry> {
+
+    private static final int CHUNK_SHIFT = 4;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private final Map<UUID, Map<Long, List<T>>> worlds = new HashMap<>();
+
+    public void add(T obs) {
+        Location loc = obs.getViewLocation();
+        this.worlds.computeIfAbsent(loc.getWorld().getUID(), k -> new HashMap<>())
+                .computeIfAbsent(key(loc), k -> new ArrayList<>(4))
+                .add(obs);
+    }
+
+    public void remove(T obs) {
+        Location loc = obs.getViewLocation();
+        Map<Long, List<T>> chunks = this.worlds.get(loc.getWorld().getUID());
+        if (chunks == null) {
+            return;
+        }
+
+        long key = key(loc);
+        List<T> bucket = chunks.get(key);
+        if (bucket == null || !bucket.remove(obs)) {
+            return;
+        }
+
+        if (bucket.isEmpty()) {
+            chunks.remove(key);
+            if (chunks.isEmpty()) {
+                this.worlds.remove(loc.getWorld().getUID());
+            }
+        }
+    }
+
+    /**
+     * Finds every observation whose view location is within a radius of a point.
+     * @param world World to search
+     * @param x X coordinate of the center
+     * @param y Y coordinate of the center
+     * @param z Z coordinate of the center
+     * @param radius Radius in blocks
+     * @return Observations within the radius, in no particular order
+     */
+    public List<T> queryRadius(World world, double x, double y, double z, double radius) {
+        List<T> res = new ArrayList<>();
+        Map<Long, List<T>> chunks = this.worlds.get(world.getUID());
+        if (chunks == null || radius < 0) {
+            return res;
+        }
+
+        double radiusSquared = radius * radius;
+        int minX = floorChunk(x - radius);
+        int maxX = floorChunk(x + radius);
+        int minZ = floorChunk(z - radius);
+        int maxZ = floorChunk(z + radius);
+
+        // A huge radius covers more chunks than the world has buckets, so walk the buckets instead
+        long cells = (long) (maxX - minX + 1) * (maxZ - minZ + 1);
+        if (cells > chunks.size()) {
+            for (List<T> bucket : chunks.values()) {
+                collect(bucket, x, y, z, radiusSquared, res);
+            }
+            return res;
+        }
+
+        for (int chunkX = minX; chunkX <= maxX; chunkX++) {
+            for (int chunkZ = minZ; chunkZ <= maxZ; chunkZ++) {
+                List<T> bucket = chunks.get(key(chunkX, chunkZ));
+                if (bucket != null && chunkDistanceSquared(chunkX, chunkZ, x, z) <= radiusSquared) {
+                    collect(bucket, x, y, z, radiusSquared, res);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Finds every observation in a square of chunks.
+     * @param world World to search
+     * @param chunkX X coordinate of the center chunk
+     * @param chunkZ Z coordinate of the center chunk
+     * @param radius Number of chunks to include on each side of the center chunk
+     * @param res List to add the observations to
+     */
+    public void queryChunks(World world, int chunkX, int chunkZ, int radius, Collection<T> res) {
+        Map<Long, List<T>> chunks = this.worlds.get(world.getUID());
+        if (chunks == null || radius < 0) {
+            return;
+        }
+
+        for (int x = chunkX - radius; x <= chunkX + radius; x++) {
+            for (int z = chunkZ - radius; z <= chunkZ + radius; z++) {
+                List<T> bucket = chunks.get(key(x, z));
+                if (bucket != null) {
+                    res.addAll(bucket);
+                }
+            }
+        }
+    }
+
+    private static <T extends RegistryEntry> void collect(List<T> bucket, double x, double y, double z,
+            double radiusSquared, List<T> res) {
+        for (T obs : bucket) {
+            Location loc = obs.getViewLocation();
+            double dx = loc.getX() - x;
+            double dy = loc.getY() - y;
+            double dz = loc.getZ() - z;
+            if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+                res.add(obs);
+            }
+        }
+    }
+
+    /**
+     * @return The squared horizontal distance from a point to the closest edge of a chunk
+     */
+    private static double chunkDistanceSquared(int chunkX, int chunkZ, double x, double z) {
+        double minX = chunkX << CHUNK_SHIFT;
+        double minZ = chunkZ << CHUNK_SHIFT;
+        double dx = Math.max(0, Math.max(minX - x, x - (minX + CHUNK_SIZE)));
+        double dz = Math.max(0, Math.max(minZ - z, z - (minZ + CHUNK_SIZE)));
+        return dx * dx + dz * dz;
+    }
+
+    static int floorChunk(double coord) {
+        return (int) Math.floor(coord) >> CHUNK_SHIFT;
+    }
+
+    private static long key(Location loc) {
+        return key(floorChunk(loc.getX()), floorChunk(loc.getZ()));
+    }
+
+    private static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+}
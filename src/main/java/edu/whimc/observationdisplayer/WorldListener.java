@@ -0,0 +1,39 @@
+package edu.whimc.observationdisplayer;
+
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import edu.whimc.observationdisplayer.utils.Utils;
+
+/**
+ * Loads a world's observations when the world loads and removes them when it unloads,
+ * so worlds loaded later (e.g. by Multiverse) still get their observations.
+ */
+public class WorldListener implements Listener {
+
+    private ObservationDisplayer plugin;
+
+    public WorldListener(ObservationDisplayer plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler
+    public void onWorldLoad(WorldLoadEvent event) {
+        String world = event.getWorld().getName();
+        this.plugin.getQueryer().loadWorldObservations(world, count -> {
+            Utils.debug("Loaded " + count + " observation(s) in world '" + world + "'");
+        });
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        World world = event.getWorld();
+        int count = Observation.unloadWorld(world);
+        Utils.debug("Unloaded " + count + " observation(s) in world '" + world.getName() + "'");
+    }
+
+}
@@ -26,14 +26,17 @@ public class ObservationsCommand implements CommandExecutor, TabCompleter {
         perm.addParent(ObservationDisplayer.PERM_PREFIX + ".*", true);
         Bukkit.getPluginManager().addPermission(perm);
 
+	    subCommands.put("dbstatus", new ObservationsDbStatus(plugin, "observations", "dbstatus"));
 	    subCommands.put("info", new ObservationsInfo(plugin, "observations", "info"));
 	    subCommands.put("list", new ObservationsList(plugin, "observations", "list"));
 	    subCommands.put("near", new ObservationsNear(plugin, "observations", "near"));
+	    subCommands.put("profiler", new ObservationsProfiler(plugin, "observations", "profiler"));
 	    subCommands.put("purge", new ObservationsPurge(plugin, "observations", "purge"));
 	    subCommands.put("reactivate", new ObservationsReactivate(plugin, "observations", "reactivate"));
 	    subCommands.put("remove", new ObservationsRemove(plugin, "observations", "remove"));
 	    subCommands.put("removeall", new ObservationsRemoveAll(plugin, "observations", "removeall"));
 	    subCommands.put("setexpiration", new ObservationsSetExpiration(plugin, "observations", "setexpiration"));
+	    subCommands.put("stats", new ObservationsStats(plugin, "observations", "stats"));
 	    subCommands.put("teleport", new ObservationsTeleport(plugin, "observations", "teleport"));
 	}
 
@@ -0,0 +1,56 @@
+package edu.whimc.observationdisplayer.commands.observations;
+
+import org.bukkit.command.CommandSender;
+
+import edu.whimc.observationdisplayer.ObservationDisplayer;
+import edu.whimc.observationdisplayer.commands.AbstractSubCommand;
+import edu.whimc.observationdisplayer.utils.CircuitBreaker;
+import edu.whimc.observationdisplayer.utils.ConnectionPool;
+import edu.whimc.observationdisplayer.utils.OfflineWriteQueue;
+import edu.whimc.observationdisplayer.utils.Queryer;
+import edu.whimc.observationdisplayer.utils.Utils;
+
+public class ObservationsDbStatus extends AbstractSubCommand {
+
+    public ObservationsDbStatus(ObservationDisplayer plugin, String baseCommand, String subCommand) {
+        super(plugin, baseCommand, subCommand);
+        super.description("Shows the state of the database connection and queued writes");
+    }
+
+    @Override
+    protected boolean onCommand(CommandSender sender, String[] args) {
+        Queryer queryer = this.plugin.getQueryer();
+        CircuitBreaker breaker = queryer.getCircuitBreaker();
+        OfflineWriteQueue offline = queryer.getOfflineQueue();
+        ConnectionPool pool = queryer.getStorage().getPool();
+
+        String state;
+        switch (breaker.getState()) {
+        case CLOSED:
+            state = "&aConnected";
+            break;
+        case HALF_OPEN:
+            state = "&eProbing";
+            break;
+        default:
+            state = "&cUnavailable &7(retrying in " + (breaker.getRetryInMillis() / 1000) + "s)";
+        }
+
+        Utils.msgNoPrefix(sender,
+                "&7&m-----------------&r &9&lDatabase Status&r &7&m-------------------",
+                "  &9Storage: &7" + queryer.getStorage().getName(),
+                "  &9State: " + state,
+                "  &9Consecutive failures: &7" + breaker.getConsecutiveFailures(),
+                "  &9Connections: &7" + pool.getTotalConnections() + " open, " +
+                        pool.getIdleConnections() + " idle, " + pool.getMaxSize() + " max",
+                "  &9Queries: &7" + queryer.getActiveQueries() + " running, " + queryer.getQueuedQueries() + " queued",
+                "",
+                "  &9Offline queue: &7" + offline.size() + "&8/&7" + offline.getCapacity(),
+                "  &9Pending inserts: &7" + queryer.getPendingInserts() +
+                        " &8(&7" + queryer.getJournaledObservations() + " journaled&8)",
+                "  &9Pending deactivations: &7" + queryer.getPendingDeactivations(),
+                "&7&m-----------------------------------------------------");
+        return true;
+    }
+
+}
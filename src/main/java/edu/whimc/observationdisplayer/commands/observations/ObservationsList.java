@@ -2,25 +2,35 @@ package edu.whimc.observationdisplayer.commands.observations;
 
 import java.util.List;
 
+import org.bukkit.Bukkit;
+import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 
+import edu.whimc.observationdisplayer.Observation;
 import edu.whimc.observationdisplayer.ObservationDisplayer;
 import edu.whimc.observationdisplayer.commands.AbstractSubCommand;
+import edu.whimc.observationdisplayer.utils.ObservationListCache;
 import edu.whimc.observationdisplayer.utils.Utils;
 
 public class ObservationsList extends AbstractSubCommand {
 
+    private final ObservationListCache cache = new ObservationListCache();
+    private final int pageSize;
+
     public ObservationsList(ObservationDisplayer plugin, String baseCommand, String subCommand) {
         super(plugin, baseCommand, subCommand);
         super.description("Lists all active observations");
-        super.arguments("[-p <player>] [-w <\"world...\">]");
+        super.arguments("[-p <player>] [-w <\"world...\">] [-page <number>] [-after <id>]");
         super.bypassArgumentChecks();
+        this.pageSize = Math.max(1, plugin.getConfig().getInt("list.page-size", 10));
     }
 
     @Override
     protected boolean onCommand(CommandSender sender, String[] args) {
         String player = null;
         String world = null;
+        String page = null;
+        String after = null;
 
         for (int ind = 0; ind < args.length - 1; ind++) {
             String param = args[ind].toLowerCase();
@@ -31,24 +41,113 @@ public class ObservationsList extends AbstractSubCommand {
             if (param.equalsIgnoreCase("-w")) {
                 world = args[ind + 1];
             }
+            if (param.equalsIgnoreCase("-page")) {
+                page = args[ind + 1];
+            }
+            if (param.equalsIgnoreCase("-after")) {
+                after = args[ind + 1];
+            }
         }
 
-        Utils.debug("Player: " + player + " | World: " + world);
+        Utils.debug("Player: " + player + " | World: " + world + " | Page: " + page + " | After: " + after);
 
-        if (args.length > 0 && player == null && world == null) {
+        if (args.length > 0 && player == null && world == null && page == null && after == null) {
             Utils.msg(sender, "&cIncorrect parameter usage!",
                     "  " + super.getUsage(0),
-                    "  &7Example:", "    &7/observations &blist &3-p Poi -w &7\"&3Redstone World&7\"");
+                    "  &7Example:", "    &7/observations &blist &3-p Poi -w &7\"&3Redstone World&7\" -page 2");
+            return true;
+        }
+
+        Integer pageNum = page == null ? Integer.valueOf(1) : Utils.parseIntWithError(sender, page);
+        Integer afterId = after == null ? null : Utils.parseIntWithError(sender, after);
+        if (pageNum == null || (after != null && afterId == null)) {
+            return true;
+        }
+        if (pageNum < 1) {
+            Utils.msg(sender, "&cThe page number must be at least 1!");
             return true;
         }
 
-        Utils.listObservations(sender, player, world);
+        World bukkitWorld = world == null ? null : Utils.getWorldIgnoreCase(world);
+        if (world != null && bukkitWorld == null) {
+            Utils.msg(sender, "&7No observations matched your input query!");
+            return true;
+        }
+
+        String finalPlayer = player;
+        String finalWorld = world;
+        // Filtering runs off the main thread, only sending the page needs it
+        Bukkit.getScheduler().runTaskAsynchronously(this.plugin, () -> {
+            List<Observation> matches = this.cache.get(finalPlayer, bukkitWorld);
+            Bukkit.getScheduler().runTask(this.plugin, this.plugin.getProfiler().wrap("list.page",
+                    () -> sendPage(sender, matches, finalPlayer, finalWorld, pageNum, afterId)));
+        });
         return true;
     }
 
+    private void sendPage(CommandSender sender, List<Observation> matches, String player, String world,
+            int pageNum, Integer afterId) {
+        if (matches.isEmpty()) {
+            Utils.msg(sender, Observation.getObservationCount() == 0
+                    ? "&7There are currently no observations!"
+                    : "&7No observations matched your input query!");
+            return;
+        }
+
+        // A cursor picks up right after the last id that was shown, even if observations were removed since
+        int start = afterId == null ? (pageNum - 1) * this.pageSize : firstIndexAfter(matches, afterId);
+        int end = Math.min(matches.size(), start + this.pageSize);
+        int pages = (matches.size() + this.pageSize - 1) / this.pageSize;
+
+        Utils.msgNoPrefix(sender, "&7&m-----------------&r &9&lObservation List&r &7&m------------------",
+                "  &9Player: " + (player == null ? "&7N/A" : "&8\"&7&o" + player + "&8\"") +
+                "    &9World: " + (world == null ? "&7N/A" : "&8\"&7&o" + world + "&8\""),
+                "");
+
+        if (start >= matches.size()) {
+            Utils.msgNoPrefix(sender, "  &7There are no more observations to show.");
+        }
+        for (int ind = start; ind < end; ind++) {
+            Utils.msgNoPrefix(sender, " &7- " + matches.get(ind).toString());
+        }
+
+        Utils.msgNoPrefix(sender, "", "  &9" + matches.size() + " observation(s) found. &7Page " +
+                Math.min(pages, start / this.pageSize + 1) + "&8/&7" + pages);
+        if (end < matches.size()) {
+            Utils.msgNoPrefix(sender, "  &7Next page: &b/observations list" + filterArgs(player, world) +
+                    " -after " + matches.get(end - 1).getId());
+        }
+        Utils.msgNoPrefix(sender, "&7&m-----------------------------------------------------");
+    }
+
+    private static int firstIndexAfter(List<Observation> matches, int id) {
+        int low = 0;
+        int high = matches.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (matches.get(mid).getId() <= id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String filterArgs(String player, String world) {
+        StringBuilder res = new StringBuilder();
+        if (player != null) {
+            res.append(" -p ").append(player);
+        }
+        if (world != null) {
+            res.append(" -w ").append(world.contains(" ") ? "\"" + world + "\"" : world);
+        }
+        return res.toString();
+    }
+
     @Override
     protected List<String> onTabComplete(CommandSender sender, String[] args) {
-        return Utils.getFlaggedTabComplete(sender, args);
+        return Utils.getFlaggedTabComplete(sender, args, "-page", "-after");
     }
 
 }
@@ -1,8 +1,9 @@
 package edu.whimc.observationdisplayer.commands.observations;
 
+import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
 
+import org.bukkit.Location;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
@@ -30,12 +31,9 @@ public class ObservationsNear extends AbstractSubCommand {
             return true;
         }
 
-        double radiusSquared = Math.pow(radius, 2);
-        Player player = (Player) sender;
-        List<Observation> inRadius = Observation.getObservations().stream()
-                .filter(v -> v.getViewLocation().getWorld() == player.getWorld())
-                .filter(v -> v.getViewLocation().distanceSquared(player.getLocation()) <= radiusSquared)
-                .collect(Collectors.toList());
+        Location loc = ((Player) sender).getLocation();
+        List<Observation> inRadius = Observation.queryRadius(loc.getWorld(), loc.getX(), loc.getY(), loc.getZ(), radius);
+        inRadius.sort(Comparator.comparing(Observation::getId));
 
         if (inRadius.isEmpty()) {
             Utils.msg(sender, "&cThere are no observations within &4" +
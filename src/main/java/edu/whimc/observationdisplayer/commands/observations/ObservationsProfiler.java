@@ -0,0 +1,47 @@
+package edu.whimc.observationdisplayer.commands.observations;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bukkit.command.CommandSender;
+
+import edu.whimc.observationdisplayer.ObservationDisplayer;
+import edu.whimc.observationdisplayer.commands.AbstractSubCommand;
+import edu.whimc.observationdisplayer.utils.TickProfiler;
+import edu.whimc.observationdisplayer.utils.Utils;
+
+public class ObservationsProfiler extends AbstractSubCommand {
+
+    public ObservationsProfiler(ObservationDisplayer plugin, String baseCommand, String subCommand) {
+        super(plugin, baseCommand, subCommand);
+        super.description("Shows how much main thread time the plugin uses per tick");
+        super.arguments("[reset]");
+        super.bypassArgumentChecks();
+    }
+
+    @Override
+    protected boolean onCommand(CommandSender sender, String[] args) {
+        TickProfiler profiler = this.plugin.getProfiler();
+        if (!profiler.isEnabled()) {
+            Utils.msg(sender, "&cThe profiler is disabled! Set \"&4profiler.enabled&c\" to true in the config and restart.");
+            return true;
+        }
+
+        if (args.length > 0 && args[0].equalsIgnoreCase("reset")) {
+            profiler.reset();
+            Utils.msg(sender, "&aProfiler has been reset!");
+            return true;
+        }
+
+        Utils.msgNoPrefix(sender, "&7&m-----------------&r &9&lTick Profiler&r &7&m---------------------");
+        profiler.report().forEach(v -> Utils.msgNoPrefix(sender, "  " + v));
+        Utils.msgNoPrefix(sender, "&7&m-----------------------------------------------------");
+        return true;
+    }
+
+    @Override
+    protected List<String> onTabComplete(CommandSender sender, String[] args) {
+        return Arrays.asList("reset");
+    }
+
+}
@@ -1,8 +1,9 @@
 package edu.whimc.observationdisplayer.commands.observations;
 
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
+import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 
 import edu.whimc.observationdisplayer.Observation;
@@ -44,23 +45,25 @@ public class ObservationsRemoveAll extends AbstractSubCommand {
             return true;
         }
 
-        String finalPlayer = player;
-        String finalWorld = world;
-
-        List<Observation> toRemove = Observation.getObservations().stream()
-                .filter(v -> finalWorld == null || v.getHoloLocation().getWorld().getName().equalsIgnoreCase(finalWorld))
-                .filter(v -> finalPlayer == null || v.getPlayer().equalsIgnoreCase(finalPlayer))
-                .collect(Collectors.toList());
+        // Only loaded worlds have holograms to take down, the database update covers the rest
+        World bukkitWorld = world == null ? null : Utils.getWorldIgnoreCase(world);
+        List<Observation> toRemove = world != null && bukkitWorld == null
+                ? Collections.emptyList()
+                : Observation.getObservations(player, bukkitWorld);
         toRemove.stream()
                 .forEachOrdered(Observation::deleteObservation);
 
-        if (toRemove.size() > 0) {
-            plugin.getQueryer().makeObservationsInactive(world, player, count -> {
+        plugin.getQueryer().makeObservationsInactive(player, world, count -> {
+            if (count < 0) {
+                plugin.getMetrics().counter("observations.deleted").add(toRemove.size());
+                Utils.msg(sender, "&7The database is unavailable, matching observations will be removed once it is back");
+            } else if (count > 0) {
+                plugin.getMetrics().counter("observations.deleted").add(count);
                 Utils.msg(sender, "&7Finished removing " + count + " observation(s)");
-            });
-        } else {
-            Utils.msg(sender, "&7No observations matched your input query!");
-        }
+            } else {
+                Utils.msg(sender, "&7No observations matched your input query!");
+            }
+        });
         return true;
     }
 
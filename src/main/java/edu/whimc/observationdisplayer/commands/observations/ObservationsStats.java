@@ -0,0 +1,24 @@
+package edu.whimc.observationdisplayer.commands.observations;
+
+import org.bukkit.command.CommandSender;
+
+import edu.whimc.observationdisplayer.ObservationDisplayer;
+import edu.whimc.observationdisplayer.commands.AbstractSubCommand;
+import edu.whimc.observationdisplayer.utils.Utils;
+
+public class ObservationsStats extends AbstractSubCommand {
+
+    public ObservationsStats(ObservationDisplayer plugin, String baseCommand, String subCommand) {
+        super(plugin, baseCommand, subCommand);
+        super.description("Shows what the plugin has been doing and how long it took");
+    }
+
+    @Override
+    protected boolean onCommand(CommandSender sender, String[] args) {
+        Utils.msgNoPrefix(sender, "&7&m-----------------&r &9&lObservation Stats&r &7&m-----------------");
+        this.plugin.getMetrics().report().forEach(v -> Utils.msgNoPrefix(sender, "  " + v));
+        Utils.msgNoPrefix(sender, "&7&m-----------------------------------------------------");
+        return true;
+    }
+
+}
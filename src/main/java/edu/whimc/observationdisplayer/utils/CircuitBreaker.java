@@ -0,0 +1,97 @@
+package edu.whimc.observationdisplayer.utils;
+
+/**
+ * Stops database calls after repeated connection failures so a dead database is not hammered.
+ * <p>
+ * The breaker opens once {@code failureThreshold} calls in a row have failed. While open, every
+ * call is refused until the open period has passed, after which a single probe call is let through.
+ * The breaker closes again if the probe succeeds and reopens if it fails.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt = 0;
+    private boolean probing = false;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = Math.max(0, openMillis);
+    }
+
+    /**
+     * @return Whether a call may be made right now
+     */
+    public synchronized boolean allowRequest() {
+        if (this.state == State.OPEN && System.currentTimeMillis() - this.openedAt >= this.openMillis) {
+            this.state = State.HALF_OPEN;
+            this.probing = false;
+        }
+
+        switch (this.state) {
+        case CLOSED:
+            return true;
+        case HALF_OPEN:
+            if (this.probing) {
+                return false;
+            }
+            this.probing = true;
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (this.state != State.CLOSED) {
+            Utils.debug("Database is reachable again, closing circuit breaker");
+        }
+        this.state = State.CLOSED;
+        this.failures = 0;
+        this.probing = false;
+    }
+
+    public synchronized void recordFailure() {
+        this.failures++;
+        this.probing = false;
+        if (this.state == State.HALF_OPEN || (this.state == State.CLOSED && this.failures >= this.failureThreshold)) {
+            Utils.debug("Database unreachable after " + this.failures + " failure(s), opening circuit breaker");
+            this.state = State.OPEN;
+            this.openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Records a call that never reached the database, such as one that timed out waiting for a
+     * pooled connection. It neither counts as a failure nor closes the breaker.
+     */
+    public synchronized void recordSkipped() {
+        this.probing = false;
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return this.failures;
+    }
+
+    /**
+     * @return Milliseconds until an open breaker lets a probe call through, or 0 if it is not open
+     */
+    public synchronized long getRetryInMillis() {
+        if (this.state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, this.openMillis - (System.currentTimeMillis() - this.openedAt));
+    }
+
+}
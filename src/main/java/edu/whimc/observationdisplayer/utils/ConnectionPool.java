@@ -0,0 +1,359 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A small bounded pool of JDBC connections.
+ * Connections handed out by {@link #borrow()} return themselves to the pool when closed,
+ * so callers can keep using try-with-resources.
+ */
+public class ConnectionPool {
+
+    private final String url;
+    private final String username;
+    private final String password;
+
+    private final int minSize;
+    private final int maxSize;
+    private final int validationTimeoutSeconds;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<IdleConnection> idle = new ArrayDeque<>();
+    private int total = 0;
+    private boolean closed = false;
+
+    public ConnectionPool(String url, String username, String password, int minSize, int maxSize,
+            int validationTimeoutSeconds, long idleTimeoutMillis, long borrowTimeoutMillis) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+        this.validationTimeoutSeconds = Math.max(0, validationTimeoutSeconds);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+    }
+
+    /**
+     * Opens connections until the pool holds its minimum size.
+     * @throws SQLException if a connection could not be opened
+     */
+    public void fill() throws SQLException {
+        while (true) {
+            lock.lock();
+            try {
+                if (this.closed || this.total >= this.minSize) {
+                    return;
+                }
+                this.total++;
+            } finally {
+                lock.unlock();
+            }
+
+            Connection connection;
+            try {
+                connection = open();
+            } catch (SQLException exc) {
+                discard(null);
+                throw exc;
+            }
+            release(connection);
+        }
+    }
+
+    /**
+     * Borrows a validated connection from the pool, opening a new one if the pool has room.
+     * Closing the returned connection gives it back to the pool.
+     * @return A pooled connection
+     * @throws BorrowTimeoutException if no connection could be obtained before the borrow timeout
+     * @throws PoolClosedException if the pool has been closed
+     * @throws SQLException if a new connection could not be opened
+     */
+    public Connection borrow() throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.borrowTimeoutMillis);
+
+        while (true) {
+            IdleConnection candidate = null;
+            boolean create = false;
+
+            lock.lock();
+            try {
+                while (!this.closed && this.idle.isEmpty() && this.total >= this.maxSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new BorrowTimeoutException("Timed out after " + this.borrowTimeoutMillis +
+                                "ms waiting for a database connection (" + this.total + " in use)");
+                    }
+                    try {
+                        available.awaitNanos(remaining);
+                    } catch (InterruptedException exc) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection", exc);
+                    }
+                }
+
+                if (this.closed) {
+                    throw new PoolClosedException();
+                }
+
+                if (!this.idle.isEmpty()) {
+                    candidate = this.idle.pollFirst();
+                } else {
+                    this.total++;
+                    create = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    return wrap(open());
+                } catch (SQLException exc) {
+                    discard(null);
+                    throw exc;
+                }
+            }
+
+            if (isValid(candidate.connection)) {
+                return wrap(candidate.connection);
+            }
+
+            Utils.debug("Discarding stale pooled database connection");
+            discard(candidate.connection);
+        }
+    }
+
+    /**
+     * Closes idle connections that have not been used within the idle timeout,
+     * never shrinking the pool below its minimum size.
+     */
+    public void evictIdle() {
+        Deque<Connection> toClose = new ArrayDeque<>();
+        long cutoff = System.currentTimeMillis() - this.idleTimeoutMillis;
+
+        lock.lock();
+        try {
+            Iterator<IdleConnection> iter = this.idle.descendingIterator();
+            while (iter.hasNext() && this.total > this.minSize) {
+                IdleConnection entry = iter.next();
+                if (entry.lastUsed < cutoff) {
+                    iter.remove();
+                    this.total--;
+                    toClose.add(entry.connection);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (!toClose.isEmpty()) {
+            Utils.debug("Evicting " + toClose.size() + " idle database connection(s)");
+        }
+        toClose.forEach(ConnectionPool::closeQuietly);
+    }
+
+    /**
+     * Closes every idle connection and refuses further borrows.
+     * Connections that are currently borrowed are closed when they are returned.
+     */
+    public void close() {
+        Deque<IdleConnection> toClose;
+        lock.lock();
+        try {
+            this.closed = true;
+            toClose = new ArrayDeque<>(this.idle);
+            this.total -= this.idle.size();
+            this.idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        toClose.forEach(v -> closeQuietly(v.connection));
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    public int getTotalConnections() {
+        lock.lock();
+        try {
+            return this.total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIdleConnections() {
+        lock.lock();
+        try {
+            return this.idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Connection open() throws SQLException {
+        return DriverManager.getConnection(this.url, this.username, this.password);
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(this.validationTimeoutSeconds);
+        } catch (SQLException exc) {
+            return false;
+        }
+    }
+
+    private void release(Connection connection) {
+        boolean reuse;
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            reuse = !connection.isClosed();
+        } catch (SQLException exc) {
+            reuse = false;
+        }
+
+        if (!reuse) {
+            discard(connection);
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (!this.closed) {
+                this.idle.addFirst(new IdleConnection(connection));
+                available.signal();
+                return;
+            }
+            this.total--;
+        } finally {
+            lock.unlock();
+        }
+
+        closeQuietly(connection);
+    }
+
+    private void discard(Connection connection) {
+        lock.lock();
+        try {
+            this.total--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        if (connection != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    private Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new PooledConnectionHandler(connection));
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private static class IdleConnection {
+
+        private final Connection connection;
+        private final long lastUsed = System.currentTimeMillis();
+
+        private IdleConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private class PooledConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+        private boolean returned = false;
+
+        private PooledConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "close":
+                if (!this.returned) {
+                    this.returned = true;
+                    release(this.connection);
+                }
+                return null;
+            case "isClosed":
+                return this.returned || this.connection.isClosed();
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "Pooled" + this.connection.toString();
+            default:
+                if (this.returned) {
+                    throw new SQLException("Connection has already been returned to the pool");
+                }
+                try {
+                    return method.invoke(this.connection, args);
+                } catch (InvocationTargetException exc) {
+                    throw exc.getCause();
+                }
+            }
+        }
+    }
+
+    /**
+     * Thrown when every pooled connection stayed in use for the whole borrow timeout.
+     */
+    public static class BorrowTimeoutException extends SQLTransientConnectionException {
+
+        private static final long serialVersionUID = 1L;
+
+        BorrowTimeoutException(String reason) {
+            super(reason);
+        }
+    }
+
+    /**
+     * Thrown when borrowing from a pool that has been closed, which only happens during shutdown.
+     */
+    public static class PoolClosedException extends SQLException {
+
+        private static final long serialVersionUID = 1L;
+
+        PoolClosedException() {
+            super("Connection pool is closed");
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects observation ids that should be made inactive and writes them together.
+ * Ids queued within the same window are sent as chunked {@code rowid IN (...)} updates
+ * instead of one update per observation.
+ */
+public class DeactivationCoalescer implements Runnable {
+
+    private final Queryer queryer;
+    private final long windowNanos;
+
+    private final BlockingQueue<PendingDeactivation> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public DeactivationCoalescer(Queryer queryer, long windowMillis) {
+        this.queryer = queryer;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+
+        this.thread = new Thread(this, "ObservationDisplayer-Deactivator");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues observations to be made inactive.
+     * @param ids Ids of the observations
+     * @param callback Function to call on the main thread once the ids have been written
+     */
+    public void enqueue(int[] ids, Runnable callback) {
+        this.queue.add(new PendingDeactivation(ids, callback));
+    }
+
+    public int getQueueSize() {
+        return this.queue.size();
+    }
+
+    /**
+     * Stops accepting work and waits for everything already queued to be written.
+     * @param timeoutMillis Maximum time to wait for the coalescer thread
+     */
+    public void shutdown(long timeoutMillis) {
+        this.running = false;
+        try {
+            this.thread.join(timeoutMillis);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Removes everything still queued once {@link #shutdown(long)} has given up waiting.
+     * @return Ids of the observations that were never written
+     */
+    public int[] drainQueuedIds() {
+        List<PendingDeactivation> pending = new ArrayList<>();
+        this.queue.drainTo(pending);
+        return pending.stream().flatMapToInt(v -> Arrays.stream(v.ids)).distinct().toArray();
+    }
+
+    @Override
+    public void run() {
+        List<PendingDeactivation> pending = new ArrayList<>();
+
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                PendingDeactivation first = this.queue.poll(this.windowNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                pending.add(first);
+
+                // Give other deactivations a short window to join this write
+                long deadline = System.nanoTime() + this.windowNanos;
+                long remaining;
+                while (this.running && (remaining = deadline - System.nanoTime()) > 0) {
+                    PendingDeactivation next = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    pending.add(next);
+                }
+                this.queue.drainTo(pending);
+
+                flush(pending);
+            } catch (InterruptedException exc) {
+                this.running = false;
+            } finally {
+                pending.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingDeactivation> pending) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        for (PendingDeactivation deactivation : pending) {
+            for (int id : deactivation.ids) {
+                ids.add(id);
+            }
+        }
+
+        Utils.debug("Making " + ids.size() + " observation(s) inactive:");
+        try {
+            // Writes the database could not take are queued by the Queryer and replayed later
+            int count = this.queryer.deactivateObservations(ids);
+            Utils.debug(count + " observation(s) set as inactive.");
+            pending.forEach(v -> this.queryer.sync(v.callback));
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static class PendingDeactivation {
+
+        private final int[] ids;
+        private final Runnable callback;
+
+        private PendingDeactivation(int[] ids, Runnable callback) {
+            this.ids = ids;
+            this.callback = callback;
+        }
+    }
+
+}
@@ -0,0 +1,262 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An open-addressing map from primitive ints to objects that iterates in insertion order.
+ * Entries are kept in a dense array and found through a linear-probing index of slots,
+ * so lookup, insertion and removal are all O(1) without boxing the keys.
+ * Values may not be null. This class is not thread-safe.
+ *
+ * @param <V> Type of the values
+ */
+public class IntObjectMap<V> implements Iterable<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    /** Dense slot + 1 of each entry, or 0 for an empty bucket. */
+    private int[] index;
+    private int mask;
+
+    private int[] keys;
+    private Object[] values;
+    /** Number of dense slots in use, including removed entries. */
+    private int used = 0;
+    /** Number of live entries. */
+    private int size = 0;
+
+    public IntObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public IntObjectMap(int expectedSize) {
+        int capacity = tableSizeFor(Math.max(MIN_CAPACITY, expectedSize));
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        this.index = new int[capacity * 2];
+        this.mask = this.index.length - 1;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return findBucket(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int bucket = findBucket(key);
+        return bucket < 0 ? null : (V) this.values[this.index[bucket] - 1];
+    }
+
+    /**
+     * Maps a key to a value, replacing any previous value in place.
+     * @param key Key
+     * @param value Value, which may not be null
+     * @return The previous value, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("IntObjectMap does not support null values");
+        }
+
+        int bucket = findBucket(key);
+        if (bucket >= 0) {
+            int slot = this.index[bucket] - 1;
+            V previous = (V) this.values[slot];
+            this.values[slot] = value;
+            return previous;
+        }
+
+        if (this.used == this.keys.length) {
+            // Reclaim removed slots before growing
+            if (this.size <= this.used / 2) {
+                rebuild(this.keys.length);
+            } else {
+                rebuild(this.keys.length * 2);
+            }
+        }
+
+        int slot = this.used++;
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        this.size++;
+
+        bucket = hash(key) & this.mask;
+        while (this.index[bucket] != 0) {
+            bucket = (bucket + 1) & this.mask;
+        }
+        this.index[bucket] = slot + 1;
+        return null;
+    }
+
+    /**
+     * Removes the mapping for a key.
+     * @param key Key
+     * @return The removed value, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int bucket = findBucket(key);
+        if (bucket < 0) {
+            return null;
+        }
+
+        int slot = this.index[bucket] - 1;
+        V previous = (V) this.values[slot];
+        this.values[slot] = null;
+        this.size--;
+        deleteBucket(bucket);
+
+        if (slot == this.used - 1) {
+            this.used--;
+        }
+        if (this.size == 0) {
+            this.used = 0;
+        }
+        return previous;
+    }
+
+    public void clear() {
+        Arrays.fill(this.index, 0);
+        Arrays.fill(this.values, 0, this.used, null);
+        this.used = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Iterates the values in insertion order.
+     * The map must not be modified while iterating except through {@link Iterator#remove()}.
+     */
+    @Override
+    public Iterator<V> iterator() {
+        return new Iterator<V>() {
+
+            private int next = advance(0);
+            private int last = -1;
+
+            private int advance(int from) {
+                while (from < IntObjectMap.this.used && IntObjectMap.this.values[from] == null) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.next < IntObjectMap.this.used;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public V next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                this.last = this.next;
+                this.next = advance(this.next + 1);
+                return (V) IntObjectMap.this.values[this.last];
+            }
+
+            @Override
+            public void remove() {
+                if (this.last < 0) {
+                    throw new IllegalStateException();
+                }
+                int key = IntObjectMap.this.keys[this.last];
+                this.last = -1;
+
+                // Removing never moves dense slots, so the cursor stays valid
+                int bucket = findBucket(key);
+                IntObjectMap.this.values[IntObjectMap.this.index[bucket] - 1] = null;
+                IntObjectMap.this.size--;
+                deleteBucket(bucket);
+            }
+        };
+    }
+
+    private int findBucket(int key) {
+        int bucket = hash(key) & this.mask;
+        int entry;
+        while ((entry = this.index[bucket]) != 0) {
+            if (this.keys[entry - 1] == key) {
+                return bucket;
+            }
+            bucket = (bucket + 1) & this.mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Empties a bucket, shifting later entries of the probe sequence back so lookups never stop early.
+     */
+    private void deleteBucket(int bucket) {
+        int hole = bucket;
+        int next = bucket;
+        while (true) {
+            next = (next + 1) & this.mask;
+            int entry = this.index[next];
+            if (entry == 0) {
+                break;
+            }
+
+            int home = hash(this.keys[entry - 1]) & this.mask;
+            boolean staysPut = hole <= next
+                    ? hole < home && home <= next
+                    : hole < home || home <= next;
+            if (!staysPut) {
+                this.index[hole] = entry;
+                hole = next;
+            }
+        }
+        this.index[hole] = 0;
+    }
+
+    private void rebuild(int capacity) {
+        int[] newKeys = new int[capacity];
+        Object[] newValues = new Object[capacity];
+        int[] newIndex = new int[capacity * 2];
+        int newMask = newIndex.length - 1;
+
+        int slot = 0;
+        for (int ind = 0; ind < this.used; ind++) {
+            if (this.values[ind] == null) {
+                continue;
+            }
+            newKeys[slot] = this.keys[ind];
+            newValues[slot] = this.values[ind];
+
+            int bucket = hash(newKeys[slot]) & newMask;
+            while (newIndex[bucket] != 0) {
+                bucket = (bucket + 1) & newMask;
+            }
+            newIndex[bucket] = ++slot;
+        }
+
+        this.keys = newKeys;
+        this.values = newValues;
+        this.index = newIndex;
+        this.mask = newMask;
+        this.used = slot;
+    }
+
+    private static int hash(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int tableSizeFor(int size) {
+        int capacity = Integer.highestOneBit(size - 1) << 1;
+        return capacity < 0 ? 1 << 30 : capacity;
+    }
+
+}
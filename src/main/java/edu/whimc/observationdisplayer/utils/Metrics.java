@@ -0,0 +1,193 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+
+import edu.whimc.observationdisplayer.ObservationDisplayer;
+
+/**
+ * Lightweight counters, timers and gauges describing what the plugin is doing.
+ * Counters and timers may be updated from any thread without locking.
+ * Gauges are read when a report is built, which happens on the main thread.
+ */
+public class Metrics {
+
+    private final ObservationDisplayer plugin;
+    private final long startedAt = System.currentTimeMillis();
+
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    public Metrics(ObservationDisplayer plugin) {
+        this.plugin = plugin;
+    }
+
+    public Counter counter(String name) {
+        return this.counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public Timer timer(String name) {
+        return this.timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /**
+     * Registers a value that is read whenever a report is built.
+     * @param name Name of the gauge
+     * @param value Supplies the current value, called on the main thread
+     */
+    public void gauge(String name, LongSupplier value) {
+        this.gauges.put(name, value);
+    }
+
+    /**
+     * Builds a report of every metric. Must be called on the main thread.
+     * @return The lines of the report, with color codes
+     */
+    public List<String> report() {
+        List<String> lines = new ArrayList<>();
+        lines.add("&9Uptime: &7" + TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis() - this.startedAt) + " minute(s)");
+
+        lines.add("&9Counters:");
+        this.counters.forEach((name, counter) -> lines.add("  &7" + name + ": &f" + counter.get()));
+
+        lines.add("&9Timers: &8(count, mean, p50, p95, p99, max in ms)");
+        this.timers.forEach((name, timer) -> lines.add("  &7" + name + ": &f" + timer.getCount() +
+                "&8, &f" + millis(timer.getMeanNanos()) +
+                "&8, &f" + millis(timer.getPercentileNanos(0.5)) +
+                "&8, &f" + millis(timer.getPercentileNanos(0.95)) +
+                "&8, &f" + millis(timer.getPercentileNanos(0.99)) +
+                "&8, &f" + millis(timer.getMaxNanos())));
+
+        lines.add("&9Gauges:");
+        this.gauges.forEach((name, gauge) -> lines.add("  &7" + name + ": &f" + gauge.getAsLong()));
+        return lines;
+    }
+
+    /**
+     * Periodically writes a report to a file in the data folder if "metrics.dump-interval-seconds" is positive.
+     * The report is built on the main thread and written asynchronously.
+     */
+    public void startDump() {
+        long interval = this.plugin.getConfig().getLong("metrics.dump-interval-seconds", 0) * 20;
+        if (interval <= 0) {
+            return;
+        }
+
+        File file = new File(this.plugin.getDataFolder(), this.plugin.getConfig().getString("metrics.dump-file", "metrics.txt"));
+        Bukkit.getScheduler().runTaskTimer(this.plugin, this.plugin.getProfiler().wrap("metrics.dump", () -> {
+            List<String> lines = new ArrayList<>();
+            lines.add("# " + Utils.getDateNow());
+            report().forEach(v -> lines.add(ChatColor.stripColor(Utils.color(v))));
+            Bukkit.getScheduler().runTaskAsynchronously(this.plugin, () -> write(file, lines));
+        }), interval, interval);
+    }
+
+    private static void write(File file, List<String> lines) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            Files.write(tmp.toPath(), lines, StandardCharsets.UTF_8);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException exc) {
+            exc.printStackTrace();
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1_000_000.0);
+    }
+
+    public static class Counter {
+
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            this.value.increment();
+        }
+
+        public void add(long amount) {
+            this.value.add(amount);
+        }
+
+        public long get() {
+            return this.value.sum();
+        }
+    }
+
+    /**
+     * Latency histogram with one bucket per power of two microseconds.
+     * Percentiles are reported as the upper bound of the bucket they fall in.
+     */
+    public static class Timer {
+
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long nanos) {
+            long micros = Math.max(0, nanos) / 1000;
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            this.buckets.incrementAndGet(bucket);
+            this.count.increment();
+            this.total.add(nanos);
+            this.max.accumulateAndGet(nanos, Math::max);
+        }
+
+        /**
+         * Records the time since a {@link System#nanoTime()} reading.
+         * @param startNanos The earlier reading
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return this.count.sum();
+        }
+
+        public long getMeanNanos() {
+            long count = getCount();
+            return count == 0 ? 0 : this.total.sum() / count;
+        }
+
+        public long getMaxNanos() {
+            return this.max.get();
+        }
+
+        public long getPercentileNanos(double percentile) {
+            long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int ind = 0; ind < BUCKETS; ind++) {
+                seen += this.buckets.get(ind);
+                if (seen >= rank) {
+                    return Math.min(this.max.get(), (1L << ind) * 1000);
+                }
+            }
+            return this.max.get();
+        }
+    }
+
+}
@@ -1,16 +1,15 @@
 package edu.whimc.observationdisplayer.utils;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
 
 import edu.whimc.observationdisplayer.ObservationDisplayer;
 
-public class MySQLConnection  {
+public class MySQLConnection extends StorageBackend {
 
     public static final String DRIVER_CLASS = "com.mysql.jdbc.Driver";
-    public static final String URL_TEMPLATE = "jdbc:mysql://%s:%s/%s";
+    public static final String URL_TEMPLATE = "jdbc:mysql://%s:%s/%s?useCursorFetch=true";
+    /** Initial table definition, applied by the first schema migration. */
     public static final String CREATE_TABLE =
             "CREATE TABLE IF NOT EXISTS `whimc_observations` (" +
             "  `rowid`       INT    AUTO_INCREMENT NOT NULL," +
@@ -30,11 +29,11 @@ public class MySQLConnection  {
             "  INDEX uuid     (`uuid`)," +
             "  INDEX username (`username`));";
 
-    private Connection connection;
     private String host, database, username, password, url;
     private int port;
 
     public MySQLConnection(ObservationDisplayer plugin) {
+        super(plugin);
         this.host = plugin.getConfig().getString("mysql.host", "localhost");
         this.port = plugin.getConfig().getInt("mysql.port", 3306);
         this.database = plugin.getConfig().getString("mysql.database", "minecraft");
@@ -42,37 +41,44 @@ public class MySQLConnection  {
         this.password = plugin.getConfig().getString("mysql.password", "pass");
 
         this.url = String.format(URL_TEMPLATE, host, port, database);
+
+        this.pool = new ConnectionPool(this.url, this.username, this.password,
+                plugin.getConfig().getInt("mysql.pool.min-size", 2),
+                plugin.getConfig().getInt("mysql.pool.max-size", 8),
+                plugin.getConfig().getInt("mysql.pool.validation-timeout-seconds", 2),
+                plugin.getConfig().getLong("mysql.pool.idle-timeout-seconds", 600) * 1000,
+                plugin.getConfig().getLong("mysql.pool.borrow-timeout-ms", 5000));
     }
 
-    public boolean initialize() {
-        if (getConnection() == null) {
-            return false;
-        }
+    @Override
+    public String getName() {
+        return "MySQL";
+    }
 
-        try {
-            PreparedStatement statement = this.connection.prepareStatement(CREATE_TABLE);
-            statement.execute();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
-        }
+    @Override
+    protected String getDriverClass() {
+        return DRIVER_CLASS;
+    }
 
-        return true;
+    @Override
+    public List<String> getCreateTableQueries() {
+        return Collections.singletonList(CREATE_TABLE);
     }
 
-    public Connection getConnection() {
-        try {
-            if (this.connection != null && !this.connection.isClosed()) {
-                return this.connection;
-            }
+    @Override
+    public boolean supportsBatchGeneratedKeys() {
+        return true;
+    }
 
-            Class.forName(DRIVER_CLASS);
-            this.connection = DriverManager.getConnection(this.url, this.username, this.password);
-        } catch (SQLException | ClassNotFoundException e) {
-            return null;
-        }
+    @Override
+    public boolean supportsUpdateLimit() {
+        return true;
+    }
 
-        return this.connection;
+    @Override
+    public String getIgnoreCaseCollation() {
+        // The default collation already ignores case
+        return "";
     }
 
 }
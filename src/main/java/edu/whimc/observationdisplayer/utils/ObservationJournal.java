@@ -0,0 +1,240 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import edu.whimc.observationdisplayer.utils.ObservationWriter.PendingInsert;
+
+/**
+ * Memory-mapped, append-only journal of observations that have not been stored in the database yet.
+ * <p>
+ * New observations are appended as fixed-size records to {@code journal.dat}, with their
+ * variable-length text in {@code journal.heap}. A record is marked as sent once its row has been
+ * committed, and the journal is reset whenever nothing is left pending. Records still pending on
+ * startup belong to observations that never reached the database and are replayed.
+ * <p>
+ * Writes go to the OS page cache through the mapping, so they survive the server process dying.
+ * They are only forced to disk on {@link #close()}.
+ */
+public class ObservationJournal {
+
+    private static final int MAGIC = 0x4F42534A;
+    private static final int VERSION = 1;
+
+    /** magic, version, record count, heap position, base sequence number */
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+    private static final int HEADER_COUNT = 8;
+    private static final int HEADER_HEAP_POS = 12;
+    private static final int HEADER_BASE_SEQ = 16;
+
+    /** status, time, uuid, x, y, z, yaw, pitch, expiration, heap offset, heap length */
+    private static final int RECORD_SIZE = 1 + 8 + 16 + 24 + 8 + 8 + 4 + 4;
+
+    private static final byte STATUS_PENDING = 1;
+    private static final byte STATUS_SENT = 2;
+
+    private static final long NO_EXPIRATION = Long.MIN_VALUE;
+
+    private final RandomAccessFile recordFile;
+    private final RandomAccessFile heapFile;
+    private final MappedByteBuffer records;
+    private final MappedByteBuffer heap;
+    private final int capacity;
+
+    private int count;
+    private int heapPos;
+    private long baseSeq;
+    private int pending = 0;
+    private boolean closed = false;
+
+    /**
+     * Opens the journal in a folder, creating it if it does not exist.
+     * @param folder Folder holding the journal files
+     * @param capacity Maximum number of records
+     * @param heapSize Size of the text heap in bytes
+     * @throws IOException if the journal could not be opened
+     */
+    public ObservationJournal(File folder, int capacity, int heapSize) throws IOException {
+        folder.mkdirs();
+        this.recordFile = new RandomAccessFile(new File(folder, "journal.dat"), "rw");
+        this.heapFile = new RandomAccessFile(new File(folder, "journal.heap"), "rw");
+
+        // An existing journal keeps its size so pending records are never cut off
+        long recordBytes = Math.max(this.recordFile.length(), HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        long heapBytes = Math.max(this.heapFile.length(), heapSize);
+        this.records = this.recordFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, recordBytes);
+        this.heap = this.heapFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, heapBytes);
+        this.capacity = (int) ((recordBytes - HEADER_SIZE) / RECORD_SIZE);
+
+        if (this.records.getInt(0) != MAGIC || this.records.getInt(4) != VERSION) {
+            this.records.putInt(0, MAGIC);
+            this.records.putInt(4, VERSION);
+            writeHeader(0, 0, 0);
+        }
+
+        this.count = this.records.getInt(HEADER_COUNT);
+        this.heapPos = this.records.getInt(HEADER_HEAP_POS);
+        this.baseSeq = this.records.getLong(HEADER_BASE_SEQ);
+        for (int ind = 0; ind < this.count; ind++) {
+            if (this.records.get(offset(ind)) == STATUS_PENDING) {
+                this.pending++;
+            }
+        }
+    }
+
+    /**
+     * Appends an observation to the journal.
+     * @param insert Observation to record
+     * @return The sequence number of the record, or -1 if the journal is full or closed
+     */
+    public synchronized long append(PendingInsert insert) {
+        byte[] username = insert.username.getBytes(StandardCharsets.UTF_8);
+        byte[] world = insert.world.getBytes(StandardCharsets.UTF_8);
+        byte[] text = insert.observation.getBytes(StandardCharsets.UTF_8);
+        int heapLength = 12 + username.length + world.length + text.length;
+
+        if (this.closed || this.count >= this.capacity || this.heapPos + heapLength > this.heap.capacity()) {
+            return -1;
+        }
+
+        int heapOffset = this.heapPos;
+        this.heap.position(heapOffset);
+        this.heap.putInt(username.length).put(username);
+        this.heap.putInt(world.length).put(world);
+        this.heap.putInt(text.length).put(text);
+
+        UUID uuid = UUID.fromString(insert.uuid);
+        int offset = offset(this.count);
+        this.records.position(offset + 1);
+        this.records.putLong(insert.time)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .putDouble(insert.x)
+                .putDouble(insert.y)
+                .putDouble(insert.z)
+                .putFloat(insert.yaw)
+                .putFloat(insert.pitch)
+                .putLong(insert.expiration == null ? NO_EXPIRATION : insert.expiration)
+                .putInt(heapOffset)
+                .putInt(heapLength);
+        // The status byte goes last so a half-written record is never treated as pending
+        this.records.put(offset, STATUS_PENDING);
+
+        long seq = this.baseSeq + this.count;
+        this.count++;
+        this.heapPos += heapLength;
+        this.pending++;
+        writeHeader(this.count, this.heapPos, this.baseSeq);
+        return seq;
+    }
+
+    /**
+     * Marks a record as stored in the database.
+     * Once nothing is pending, the journal is emptied so its space can be reused.
+     * @param seq Sequence number returned by {@link #append(PendingInsert)}
+     */
+    public synchronized void markSent(long seq) {
+        if (this.closed) {
+            return;
+        }
+        long index = seq - this.baseSeq;
+        if (index < 0 || index >= this.count) {
+            return;
+        }
+
+        int offset = offset((int) index);
+        if (this.records.get(offset) != STATUS_PENDING) {
+            return;
+        }
+        this.records.put(offset, STATUS_SENT);
+        this.pending--;
+
+        if (this.pending == 0) {
+            for (int ind = 0; ind < this.count; ind++) {
+                this.records.put(offset(ind), (byte) 0);
+            }
+            this.baseSeq += this.count;
+            this.count = 0;
+            this.heapPos = 0;
+            writeHeader(this.count, this.heapPos, this.baseSeq);
+        }
+    }
+
+    /**
+     * Reads every record that has not been marked as sent.
+     * @return The pending observations with their sequence numbers set
+     */
+    public synchronized List<PendingInsert> getPending() {
+        List<PendingInsert> res = new ArrayList<>();
+        for (int ind = 0; ind < this.count; ind++) {
+            int offset = offset(ind);
+            if (this.records.get(offset) != STATUS_PENDING) {
+                continue;
+            }
+
+            this.records.position(offset + 1);
+            long time = this.records.getLong();
+            UUID uuid = new UUID(this.records.getLong(), this.records.getLong());
+            double x = this.records.getDouble();
+            double y = this.records.getDouble();
+            double z = this.records.getDouble();
+            float yaw = this.records.getFloat();
+            float pitch = this.records.getFloat();
+            long expiration = this.records.getLong();
+            int heapOffset = this.records.getInt();
+
+            this.heap.position(heapOffset);
+            String username = readString();
+            String world = readString();
+            String text = readString();
+
+            res.add(new PendingInsert(time, uuid.toString(), username, world, x, y, z, yaw, pitch, text,
+                    expiration == NO_EXPIRATION ? null : expiration, this.baseSeq + ind, id -> {}));
+        }
+        return res;
+    }
+
+    public synchronized int getPendingCount() {
+        return this.pending;
+    }
+
+    /**
+     * Forces the journal to disk and closes its files.
+     * Records cannot be appended or marked sent afterwards.
+     */
+    public synchronized void close() {
+        this.closed = true;
+        this.records.force();
+        this.heap.force();
+        try {
+            this.recordFile.close();
+            this.heapFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private String readString() {
+        byte[] bytes = new byte[this.heap.getInt()];
+        this.heap.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void writeHeader(int count, int heapPos, long baseSeq) {
+        this.records.putInt(HEADER_COUNT, count);
+        this.records.putInt(HEADER_HEAP_POS, heapPos);
+        this.records.putLong(HEADER_BASE_SEQ, baseSeq);
+    }
+
+    private static int offset(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+}
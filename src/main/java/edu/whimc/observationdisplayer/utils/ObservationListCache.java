@@ -0,0 +1,69 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.World;
+
+import edu.whimc.observationdisplayer.Observation;
+
+/**
+ * Caches the observations matching a player/world filter, sorted by id.
+ * A cached result is only reused while the registry has not changed since it was computed,
+ * so paging through a listing does not filter every observation again for each page.
+ * Safe to use from any thread.
+ */
+public class ObservationListCache {
+
+    private static final int MAX_ENTRIES = 64;
+
+    private final Map<String, CachedResult> entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Gets the observations matching a filter.
+     * @param player Name of the player who made the observations, or null for any player
+     * @param world World the observations are in, or null for any world
+     * @return An immutable list of the matching observations sorted by id
+     */
+    public List<Observation> get(String player, World world) {
+        String key = (player == null ? "" : player.toLowerCase()) + "\0" + (world == null ? "" : world.getUID());
+        // Read before taking the snapshot, so a change in between only causes an extra miss
+        long version = Observation.getObservationsVersion();
+
+        synchronized (this.entries) {
+            CachedResult cached = this.entries.get(key);
+            if (cached != null && cached.version == version) {
+                return cached.matches;
+            }
+        }
+
+        List<Observation> matches = Observation.getObservations(player, world);
+        matches.sort(Comparator.comparingInt(Observation::getId));
+        matches = Collections.unmodifiableList(matches);
+
+        synchronized (this.entries) {
+            this.entries.put(key, new CachedResult(version, matches));
+        }
+        return matches;
+    }
+
+    private static class CachedResult {
+
+        private final long version;
+        private final List<Observation> matches;
+
+        private CachedResult(long version, List<Observation> matches) {
+            this.version = version;
+            this.matches = matches;
+        }
+    }
+
+}
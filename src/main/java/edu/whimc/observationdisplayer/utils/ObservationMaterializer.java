@@ -0,0 +1,142 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.scheduler.BukkitTask;
+
+import edu.whimc.observationdisplayer.Observation;
+import edu.whimc.observationdisplayer.ObservationDisplayer;
+
+/**
+ * Turns rows streamed from the database into observations on the main thread,
+ * creating at most a fixed number of holograms per tick.
+ */
+public class ObservationMaterializer implements Runnable {
+
+    /** How often progress is reported while a backlog remains (in milliseconds). */
+    private static final long PROGRESS_INTERVAL = 5000;
+
+    private final ObservationDisplayer plugin;
+    private final String description;
+    private final int perTick;
+    private final boolean temporary;
+    private final Consumer<Integer> onFinished;
+
+    private final Queue<ObservationRecord> backlog = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger received = new AtomicInteger();
+    private volatile boolean producerDone = false;
+
+    private BukkitTask task;
+    private int created = 0;
+    private long started;
+    private long lastProgress;
+
+    /**
+     * @param plugin Plugin instance
+     * @param description What is being loaded, used when reporting progress
+     * @param perTick Maximum number of observations to create per tick
+     * @param temporary Whether the created observations are temporary
+     * @param onFinished Called on the main thread with the number of observations created
+     */
+    public ObservationMaterializer(ObservationDisplayer plugin, String description, int perTick,
+            boolean temporary, Consumer<Integer> onFinished) {
+        this.plugin = plugin;
+        this.description = description;
+        this.perTick = Math.max(1, perTick);
+        this.temporary = temporary;
+        this.onFinished = onFinished;
+    }
+
+    /**
+     * Starts creating observations every tick. Must be called on the main thread.
+     */
+    public void start() {
+        this.started = System.currentTimeMillis();
+        this.lastProgress = this.started;
+        this.task = Bukkit.getScheduler().runTaskTimer(this.plugin, this.plugin.getProfiler().wrap("loading.materialize", this), 1, 1);
+    }
+
+    /**
+     * Hands a row to the main thread. Safe to call from any thread.
+     * @param record Row to create an observation from
+     */
+    public void offer(ObservationRecord record) {
+        this.received.incrementAndGet();
+        this.backlog.add(record);
+    }
+
+    /**
+     * Signals that no more rows will be offered. Safe to call from any thread.
+     */
+    public void finish() {
+        this.producerDone = true;
+    }
+
+    @Override
+    public void run() {
+        // Read before draining so rows offered just before finish() are not missed
+        boolean done = this.producerDone;
+
+        ObservationRecord record;
+        for (int ind = 0; ind < this.perTick && (record = this.backlog.poll()) != null; ind++) {
+            if (materialize(record)) {
+                this.created++;
+            }
+        }
+
+        if (done && this.backlog.isEmpty()) {
+            this.task.cancel();
+            long elapsed = System.currentTimeMillis() - this.started;
+            if (elapsed >= PROGRESS_INTERVAL) {
+                this.plugin.getLogger().info("Finished loading " + this.created + " " + this.description +
+                        " in " + elapsed + "ms");
+            }
+            this.onFinished.accept(this.created);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - this.lastProgress >= PROGRESS_INTERVAL) {
+            this.lastProgress = now;
+            this.plugin.getLogger().info("Loading " + this.description + ": " + this.created + " created, " +
+                    this.backlog.size() + " queued, " + this.received.get() + " read so far");
+        }
+    }
+
+    private boolean materialize(ObservationRecord record) {
+        int id = record.id;
+        if (Observation.getObservation(id) != null) {
+            return false;
+        }
+
+        World world = Bukkit.getWorld(record.world);
+        if (world == null) {
+            Utils.debug("  - "  + id + " | world '" + record.world + "' not found -> skipping");
+            return false;
+        }
+        Location loc = new Location(world, record.x, record.y, record.z, record.yaw, record.pitch);
+
+        Utils.debug("  - " + id +
+                " | " + record.timestamp.getTime() +
+                " | " + record.username +
+                " | (" + loc.getBlockX() + ", " + loc.getBlockY() + ", " + loc.getBlockZ() + ")" +
+                " | " + record.observation + " | " +
+                " | " + (record.expiration == null ? "n/a" : record.expiration.getTime()));
+
+        if (this.temporary) {
+            Observation.loadTemporaryObservation(this.plugin, id, record.timestamp, record.username, loc,
+                    record.observation, record.expiration);
+        } else {
+            Observation.loadObservation(this.plugin, id, record.timestamp, record.username, loc,
+                    record.observation, record.expiration);
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,54 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * The stored values of an observation row, read off the main thread
+ * before the observation itself is created.
+ */
+public class ObservationRecord {
+
+    final int id;
+    final Timestamp timestamp;
+    final String username;
+    final String world;
+    final double x;
+    final double y;
+    final double z;
+    final float yaw;
+    final float pitch;
+    final String observation;
+    final Timestamp expiration;
+
+    private ObservationRecord(ResultSet results) throws SQLException {
+        this.id = results.getInt("rowid");
+        this.timestamp = new Timestamp(results.getLong("time"));
+        this.username = results.getString("username");
+        this.world = results.getString("world");
+        this.x = results.getDouble("x");
+        this.y = results.getDouble("y");
+        this.z = results.getDouble("z");
+        this.yaw = results.getFloat("yaw");
+        this.pitch = results.getFloat("pitch");
+        this.observation = results.getString("observation");
+        long expNum = results.getLong("expiration");
+        this.expiration = expNum == 0 ? null : new Timestamp(expNum);
+    }
+
+    /**
+     * Reads the current row of a result set.
+     * @param results Result set positioned on an observation row
+     * @return The row's values
+     * @throws SQLException
+     */
+    public static ObservationRecord read(ResultSet results) throws SQLException {
+        return new ObservationRecord(results);
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+}
@@ -0,0 +1,375 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import edu.whimc.observationdisplayer.utils.ObservationWriter.PendingInsert;
+
+/**
+ * Reads and writes observation rows.
+ * Every call runs on the calling thread with a connection borrowed from the storage backend;
+ * scheduling, retries and journaling are left to {@link Queryer}.
+ */
+public class ObservationStore {
+
+    /** Query for inserting an observation into the database. */
+    private static final String QUERY_SAVE_OBSERVATION =
+            "INSERT INTO whimc_observations " +
+            "(time, uuid, username, world, x, y, z, yaw, pitch, observation, active, expiration) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /** Query for finding an observation that was already stored, used to skip journal records stored before a crash. */
+    private static final String QUERY_FIND_OBSERVATION =
+            "SELECT rowid " +
+            "FROM whimc_observations " +
+            "WHERE time = ? AND uuid = ? AND observation = ?";
+
+    /** Query for getting all observations of a world from the database. */
+    private static final String QUERY_GET_ACTIVE_WORLD_OBSERVATIONS =
+            "SELECT * " +
+            "FROM whimc_observations " +
+            "WHERE active = 1 AND world = ? AND (expiration IS NULL OR expiration > ?)";
+
+    /** Queries for getting observations by id, id range or time range, whether or not they are active. */
+    private static final String QUERY_GET_ID =
+            "SELECT * " +
+            "FROM whimc_observations " +
+            "WHERE rowid=?";
+
+    private static final String QUERY_GET_ID_RANGE =
+            "SELECT * " +
+            "FROM whimc_observations " +
+            "WHERE rowid BETWEEN ? AND ?";
+
+    private static final String QUERY_GET_TIME_RANGE =
+            "SELECT * " +
+            "FROM whimc_observations " +
+            "WHERE time BETWEEN ? AND ?";
+
+    /** Query prefix for making a chunk of observations inactive. */
+    private static final String QUERY_MAKE_OBSERVATIONS_INACTIVE =
+            "UPDATE whimc_observations " +
+            "SET active=0 " +
+            "WHERE active=1 AND rowid IN ";
+
+    /**
+     * Queries for making every active observation of a player, a world, or a player in a world inactive.
+     * Each {@code %s} is the backend's ignore-case collation, so names match ignoring case and the
+     * username and active/world indexes can still be used.
+     */
+    private static final String QUERY_MAKE_PLAYER_OBSERVATIONS_INACTIVE =
+            "UPDATE whimc_observations " +
+            "SET active=0 " +
+            "WHERE active=1 AND username=?%s";
+
+    private static final String QUERY_MAKE_WORLD_OBSERVATIONS_INACTIVE =
+            "UPDATE whimc_observations " +
+            "SET active=0 " +
+            "WHERE active=1 AND world=?%s";
+
+    private static final String QUERY_MAKE_PLAYER_WORLD_OBSERVATIONS_INACTIVE =
+            "UPDATE whimc_observations " +
+            "SET active=0 " +
+            "WHERE active=1 AND username=?%1$s AND world=?%1$s";
+
+    /** Query for making a bounded number of active but expired observations inactive. */
+    private static final String QUERY_MAKE_EXPIRED_INACTIVE =
+            "UPDATE whimc_observations " +
+            "SET active=0 " +
+            "WHERE active=1 AND expiration IS NOT NULL AND expiration < ? " +
+            "LIMIT ?";
+
+    /** {@link #QUERY_MAKE_EXPIRED_INACTIVE} for databases without UPDATE ... LIMIT. */
+    private static final String QUERY_MAKE_EXPIRED_INACTIVE_SUBQUERY =
+            "UPDATE whimc_observations " +
+            "SET active=0 " +
+            "WHERE rowid IN (" +
+            "  SELECT rowid FROM whimc_observations " +
+            "  WHERE active=1 AND expiration IS NOT NULL AND expiration < ? " +
+            "  LIMIT ?)";
+
+    private static final String QUERY_SET_EXPIRATION =
+            "UPDATE whimc_observations " +
+            "SET expiration=? " +
+            "WHERE rowid=?";
+
+    /** Maximum number of ids bound to a single deactivation query. */
+    private static final int DEACTIVATE_CHUNK_SIZE = 500;
+
+    private final StorageBackend storage;
+
+    public ObservationStore(StorageBackend storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Stores a batch of observations in a single transaction.
+     * @param batch Observations to save
+     * @return The generated ID of each observation, in the same order as the batch
+     * @throws SQLException
+     */
+    public int[] insert(List<PendingInsert> batch) throws SQLException {
+        try (Connection connection = this.storage.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(QUERY_SAVE_OBSERVATION, Statement.RETURN_GENERATED_KEYS)) {
+                Utils.debug("  " + QUERY_SAVE_OBSERVATION + " (x" + batch.size() + ")");
+                int[] ids = this.storage.supportsBatchGeneratedKeys()
+                        ? insertBatch(statement, batch)
+                        : insertEach(statement, batch);
+                connection.commit();
+                return ids;
+            }
+        }
+    }
+
+    private int[] insertBatch(PreparedStatement statement, List<PendingInsert> batch) throws SQLException {
+        for (PendingInsert insert : batch) {
+            bindInsert(statement, insert);
+            statement.addBatch();
+        }
+        statement.executeBatch();
+
+        int[] ids = new int[batch.size()];
+        try (ResultSet idRes = statement.getGeneratedKeys()) {
+            for (int ind = 0; ind < ids.length; ind++) {
+                if (!idRes.next()) {
+                    throw new SQLException("Expected " + ids.length + " generated keys but got " + ind);
+                }
+                ids[ind] = idRes.getInt(1);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Inserts rows one at a time for drivers that only report the last generated key of a batch.
+     * The rows still share a single transaction.
+     */
+    private int[] insertEach(PreparedStatement statement, List<PendingInsert> batch) throws SQLException {
+        int[] ids = new int[batch.size()];
+        for (int ind = 0; ind < ids.length; ind++) {
+            bindInsert(statement, batch.get(ind));
+            statement.executeUpdate();
+            try (ResultSet idRes = statement.getGeneratedKeys()) {
+                idRes.next();
+                ids[ind] = idRes.getInt(1);
+            }
+        }
+        return ids;
+    }
+
+    private void bindInsert(PreparedStatement statement, PendingInsert insert) throws SQLException {
+        statement.setLong(1, insert.time);
+        statement.setString(2, insert.uuid);
+        statement.setString(3, insert.username);
+        statement.setString(4, insert.world);
+        statement.setDouble(5, insert.x);
+        statement.setDouble(6, insert.y);
+        statement.setDouble(7, insert.z);
+        statement.setFloat(8, insert.yaw);
+        statement.setFloat(9, insert.pitch);
+        statement.setString(10, insert.observation);
+        statement.setBoolean(11, true);
+        statement.setObject(12, insert.expiration, Types.BIGINT);
+    }
+
+    /**
+     * Finds the observations that already have a row, matching on time, uuid and text.
+     * @param pending Observations to look for
+     * @return The observations that are already stored
+     * @throws SQLException
+     */
+    public List<PendingInsert> findStored(List<PendingInsert> pending) throws SQLException {
+        List<PendingInsert> stored = new ArrayList<>();
+        try (Connection connection = this.storage.getConnection();
+                PreparedStatement statement = connection.prepareStatement(QUERY_FIND_OBSERVATION)) {
+            for (PendingInsert insert : pending) {
+                statement.setLong(1, insert.time);
+                statement.setString(2, insert.uuid);
+                statement.setString(3, insert.observation);
+                try (ResultSet results = statement.executeQuery()) {
+                    if (results.next()) {
+                        Utils.debug("Observation is already stored as #" + results.getInt(1));
+                        stored.add(insert);
+                    }
+                }
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Streams the active, unexpired observations of a world.
+     * @param world Name of the world
+     * @param now Current time, rows that expired before it are skipped
+     * @param fetchSize Number of rows the driver fetches at a time
+     * @param consumer Called with each row as it is read
+     * @throws SQLException
+     */
+    public void streamWorld(String world, long now, int fetchSize, Consumer<ObservationRecord> consumer) throws SQLException {
+        stream(QUERY_GET_ACTIVE_WORLD_OBSERVATIONS, statement -> {
+            statement.setString(1, world);
+            statement.setLong(2, now);
+        }, fetchSize, consumer);
+    }
+
+    /**
+     * Streams the observation with an id, if there is one.
+     * @param id Id of the observation
+     * @param fetchSize Number of rows the driver fetches at a time
+     * @param consumer Called with the row if it exists
+     * @throws SQLException
+     */
+    public void streamId(int id, int fetchSize, Consumer<ObservationRecord> consumer) throws SQLException {
+        stream(QUERY_GET_ID, statement -> statement.setInt(1, id), fetchSize, consumer);
+    }
+
+    /**
+     * Streams the observations with ids between {@code startId} and {@code endId}, inclusive.
+     * @param fetchSize Number of rows the driver fetches at a time
+     * @param consumer Called with each row as it is read
+     * @throws SQLException
+     */
+    public void streamIdRange(int startId, int endId, int fetchSize, Consumer<ObservationRecord> consumer) throws SQLException {
+        stream(QUERY_GET_ID_RANGE, statement -> {
+            statement.setInt(1, startId);
+            statement.setInt(2, endId);
+        }, fetchSize, consumer);
+    }
+
+    /**
+     * Streams the observations made between {@code start} and {@code end}, inclusive.
+     * @param start Epoch milliseconds
+     * @param end Epoch milliseconds
+     * @param fetchSize Number of rows the driver fetches at a time
+     * @param consumer Called with each row as it is read
+     * @throws SQLException
+     */
+    public void streamTimeRange(long start, long end, int fetchSize, Consumer<ObservationRecord> consumer) throws SQLException {
+        stream(QUERY_GET_TIME_RANGE, statement -> {
+            statement.setLong(1, start);
+            statement.setLong(2, end);
+        }, fetchSize, consumer);
+    }
+
+    private void stream(String query, Binder binder, int fetchSize, Consumer<ObservationRecord> consumer) throws SQLException {
+        try (Connection connection = this.storage.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement(query,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                binder.bind(statement);
+                statement.setFetchSize(fetchSize);
+                Utils.debug("  " + query);
+                try (ResultSet results = statement.executeQuery()) {
+                    Utils.debug("Observations found:");
+                    while (results.next()) {
+                        consumer.accept(ObservationRecord.read(results));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Sets a query's parameters. */
+    private interface Binder {
+        void bind(PreparedStatement statement) throws SQLException;
+    }
+
+    /**
+     * Makes observations inactive using chunked {@code rowid IN (...)} updates in one transaction.
+     * @param ids Ids of the observations
+     * @return The number of rows that were made inactive
+     * @throws SQLException
+     */
+    public int deactivate(int[] ids) throws SQLException {
+        try (Connection connection = this.storage.getConnection()) {
+            connection.setAutoCommit(false);
+            int count = 0;
+
+            int offset = 0;
+            int remaining = ids.length;
+            while (remaining > 0) {
+                int chunk = Math.min(remaining, DEACTIVATE_CHUNK_SIZE);
+                String query = QUERY_MAKE_OBSERVATIONS_INACTIVE +
+                        "(" + String.join(", ", Collections.nCopies(chunk, "?")) + ")";
+                try (PreparedStatement statement = connection.prepareStatement(query)) {
+                    for (int ind = 1; ind <= chunk; ind++) {
+                        statement.setInt(ind, ids[offset++]);
+                    }
+                    Utils.debug("  " + QUERY_MAKE_OBSERVATIONS_INACTIVE + "(" + chunk + " ids)");
+                    count += statement.executeUpdate();
+                }
+                remaining -= chunk;
+            }
+
+            connection.commit();
+            return count;
+        }
+    }
+
+    /**
+     * Makes every active observation of a player and/or world inactive. Names are matched ignoring case.
+     * @param player Name of the player, or null for any player
+     * @param world Name of the world, or null for any world
+     * @return The number of rows that were made inactive
+     * @throws SQLException
+     */
+    public int deactivateMatching(String player, String world) throws SQLException {
+        String query = String.format(player == null ? QUERY_MAKE_WORLD_OBSERVATIONS_INACTIVE
+                : world == null ? QUERY_MAKE_PLAYER_OBSERVATIONS_INACTIVE
+                : QUERY_MAKE_PLAYER_WORLD_OBSERVATIONS_INACTIVE, this.storage.getIgnoreCaseCollation());
+        try (Connection connection = this.storage.getConnection();
+                PreparedStatement statement = connection.prepareStatement(query)) {
+            int ind = 1;
+            if (player != null) {
+                statement.setString(ind++, player);
+            }
+            if (world != null) {
+                statement.setString(ind++, world);
+            }
+            Utils.debug("  " + query);
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Makes at most {@code limit} active rows that expired before {@code now} inactive.
+     * @return The number of rows that were made inactive
+     * @throws SQLException
+     */
+    public int deactivateExpired(long now, int limit) throws SQLException {
+        String query = this.storage.supportsUpdateLimit()
+                ? QUERY_MAKE_EXPIRED_INACTIVE
+                : QUERY_MAKE_EXPIRED_INACTIVE_SUBQUERY;
+        try (Connection connection = this.storage.getConnection();
+                PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setLong(1, now);
+            statement.setInt(2, limit);
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Changes an observation's expiration.
+     * @param id Id of the observation
+     * @param expiration New expiration in epoch milliseconds, or null to never expire
+     * @return The number of rows that were updated
+     * @throws SQLException
+     */
+    public int setExpiration(int id, Long expiration) throws SQLException {
+        try (Connection connection = this.storage.getConnection();
+                PreparedStatement statement = connection.prepareStatement(QUERY_SET_EXPIRATION)) {
+            statement.setObject(1, expiration, Types.BIGINT);
+            statement.setInt(2, id);
+            return statement.executeUpdate();
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import edu.whimc.observationdisplayer.Observation;
+
+/**
+ * Write-behind queue for new observations.
+ * A single writer thread drains the queue and stores observations in JDBC batches,
+ * flushing once the batch is full or the flush interval has passed.
+ */
+public class ObservationWriter implements Runnable {
+
+    /** How long to wait before trying to store a batch again after the database was unreachable. */
+    private static final long RETRY_INTERVAL_MILLIS = 1000;
+
+    private final Queryer queryer;
+    private final int flushSize;
+    private final long flushIntervalNanos;
+
+    private final BlockingQueue<PendingInsert> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    /** Size of the batch being stored, kept if the writer gives up on it at shutdown. */
+    private volatile int inFlight = 0;
+
+    public ObservationWriter(Queryer queryer, int flushSize, long flushIntervalMillis) {
+        this.queryer = queryer;
+        this.flushSize = Math.max(1, flushSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMillis));
+
+        this.thread = new Thread(this, "ObservationDisplayer-Writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues an observation to be stored.
+     * @param insert The observation's column values
+     */
+    public void enqueue(PendingInsert insert) {
+        this.queue.add(insert);
+    }
+
+    public int getQueueSize() {
+        return this.queue.size();
+    }
+
+    /**
+     * @return Number of observations not stored yet, queued or in the batch being written
+     */
+    public int getUnsavedCount() {
+        return this.queue.size() + this.inFlight;
+    }
+
+    /**
+     * Stops accepting work and waits for everything already queued to be written.
+     * If that takes too long the writer thread is interrupted, leaving the rest unsaved.
+     * @param timeoutMillis Maximum time to wait for the writer thread
+     */
+    public void shutdown(long timeoutMillis) {
+        this.running = false;
+        try {
+            this.thread.join(Math.max(1, timeoutMillis));
+            if (this.thread.isAlive()) {
+                this.thread.interrupt();
+                this.thread.join(RETRY_INTERVAL_MILLIS);
+            }
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        List<PendingInsert> batch = new ArrayList<>(this.flushSize);
+
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                PendingInsert first = this.queue.poll(this.flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + this.flushIntervalNanos;
+                while (batch.size() < this.flushSize) {
+                    this.queue.drainTo(batch, this.flushSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= this.flushSize || remaining <= 0 || !this.running) {
+                        break;
+                    }
+
+                    PendingInsert next = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                this.inFlight = batch.size();
+                if (flush(batch)) {
+                    this.inFlight = 0;
+                }
+            } catch (InterruptedException exc) {
+                // Interrupted by shutdown, anything still queued is left unsaved
+                this.running = false;
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Stores a batch, waiting for the database to come back if it is unreachable.
+     * @return Whether the batch is done with, false if it was left unsaved at shutdown
+     */
+    private boolean flush(List<PendingInsert> batch) throws InterruptedException {
+        Utils.debug("Storing " + batch.size() + " observation(s) to database:");
+        int[] ids;
+        while (true) {
+            try {
+                ids = this.queryer.insertObservations(batch);
+                break;
+            } catch (SQLException e) {
+                if (e instanceof ConnectionPool.PoolClosedException) {
+                    // Journaled observations are replayed on the next start
+                    Utils.debug("Storage closed on shutdown, leaving " + batch.size() + " observation(s) unsaved");
+                    return false;
+                }
+                if (!RetryPolicy.isTransient(e)) {
+                    e.printStackTrace();
+                    this.queryer.abandonObservations(batch);
+                    return true;
+                }
+                if (!this.running) {
+                    // Journaled observations are replayed on the next start
+                    Utils.debug("Database unavailable on shutdown, leaving " + batch.size() + " observation(s) unsaved");
+                    return false;
+                }
+                // Hold on to the batch until the database is reachable again
+                Thread.sleep(RETRY_INTERVAL_MILLIS);
+            }
+        }
+
+        for (int ind = 0; ind < batch.size(); ind++) {
+            Utils.debug("Observation saved with id " + ids[ind] + ".");
+            this.queryer.sync(batch.get(ind).callback, ids[ind]);
+        }
+        return true;
+    }
+
+    /**
+     * The column values of an observation waiting to be stored.
+     * Values are captured on the main thread so the writer never touches Bukkit state.
+     */
+    public static class PendingInsert {
+
+        final long time;
+        final String uuid;
+        final String username;
+        final String world;
+        final double x;
+        final double y;
+        final double z;
+        final float yaw;
+        final float pitch;
+        final String observation;
+        final Long expiration;
+        final Consumer<Integer> callback;
+        /** The observation being stored, or null for one replayed from the journal. */
+        final Observation source;
+        /** Sequence number of this observation's journal record, or -1 if it is not journaled. */
+        long journalSeq = -1;
+
+        PendingInsert(long time, String uuid, String username, String world, double x, double y, double z,
+                float yaw, float pitch, String observation, Long expiration, long journalSeq, Consumer<Integer> callback) {
+            this.time = time;
+            this.uuid = uuid;
+            this.username = username;
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.yaw = yaw;
+            this.pitch = pitch;
+            this.observation = observation;
+            this.expiration = expiration;
+            this.journalSeq = journalSeq;
+            this.callback = callback;
+            this.source = null;
+        }
+
+        private PendingInsert(Observation obs, Consumer<Integer> callback) {
+            Location loc = obs.getViewLocation();
+            Player player = Bukkit.getPlayer(obs.getPlayer());
+            Timestamp expiration = obs.getExpiration();
+
+            this.time = obs.getTimestamp().getTime();
+            this.uuid = player.getUniqueId().toString();
+            this.username = obs.getPlayer();
+            this.world = loc.getWorld().getName();
+            this.x = loc.getX();
+            this.y = loc.getY();
+            this.z = loc.getZ();
+            this.yaw = loc.getYaw();
+            this.pitch = loc.getPitch();
+            this.observation = obs.getObservation();
+            this.expiration = expiration == null ? null : expiration.getTime();
+            this.callback = callback;
+            this.source = obs;
+        }
+
+        public static PendingInsert of(Observation obs, Consumer<Integer> callback) {
+            return new PendingInsert(obs, callback);
+        }
+    }
+
+}
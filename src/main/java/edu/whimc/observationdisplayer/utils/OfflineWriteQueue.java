@@ -0,0 +1,249 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.stream.Collectors;
+
+/**
+ * Bounded queue of writes that could not reach the database, kept on disk so they survive a restart.
+ * Writes are replayed in the order they were queued once the database is reachable again.
+ * <p>
+ * Each write is one line of the queue file: {@code D <id>,<id>,...} to make observations inactive,
+ * {@code M <player|-> <world|->} to make every observation of a player and/or world inactive,
+ * or {@code E <id> <expiration|->} to change an observation's expiration.
+ * Player and world names are URL-encoded.
+ * <p>
+ * The file is append-only: queuing a write appends its line, and replayed writes are only dropped
+ * from the file when {@link #compact()} rewrites it, once per replay pass. Writes replayed since the
+ * last compaction are replayed again after a crash, which is harmless as every write is idempotent.
+ */
+public class OfflineWriteQueue {
+
+    private final File file;
+    private final int capacity;
+    private final Deque<Write> writes = new ArrayDeque<>();
+    private boolean dirty = false;
+
+    /**
+     * Opens the queue, loading any writes left over from a previous run.
+     * @param file File backing the queue
+     * @param capacity Maximum number of queued writes
+     */
+    public OfflineWriteQueue(File file, int capacity) {
+        this.file = file;
+        this.capacity = Math.max(1, capacity);
+        load();
+    }
+
+    /**
+     * Queues a write.
+     * @param write The write
+     * @return Whether the write was queued, false if the queue is full
+     */
+    public synchronized boolean add(Write write) {
+        if (this.writes.size() >= this.capacity) {
+            return false;
+        }
+        this.writes.addLast(write);
+        append(write);
+        return true;
+    }
+
+    public synchronized Write peek() {
+        return this.writes.peekFirst();
+    }
+
+    /**
+     * Removes the oldest write once it has been replayed.
+     * It stays in the file until the next {@link #compact()}.
+     */
+    public synchronized void removeFirst() {
+        if (this.writes.pollFirst() != null) {
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Rewrites the file with only the writes still queued.
+     */
+    public synchronized void compact() {
+        if (!this.dirty) {
+            return;
+        }
+        save();
+        this.dirty = false;
+    }
+
+    public synchronized boolean isEmpty() {
+        return this.writes.isEmpty();
+    }
+
+    public synchronized int size() {
+        return this.writes.size();
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    private void load() {
+        if (!this.file.exists()) {
+            return;
+        }
+
+        try {
+            for (String line : Files.readAllLines(this.file.toPath(), StandardCharsets.UTF_8)) {
+                Write write = Write.parse(line);
+                if (write != null) {
+                    this.writes.addLast(write);
+                }
+            }
+        } catch (IOException | RuntimeException exc) {
+            exc.printStackTrace();
+        }
+    }
+
+    private void append(Write write) {
+        try {
+            this.file.getParentFile().mkdirs();
+            try (BufferedWriter out = Files.newBufferedWriter(this.file.toPath(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(write.toString());
+                out.newLine();
+            }
+        } catch (IOException exc) {
+            exc.printStackTrace();
+        }
+    }
+
+    private void save() {
+        File tmp = new File(this.file.getPath() + ".tmp");
+        try {
+            this.file.getParentFile().mkdirs();
+            try (BufferedWriter out = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+                for (Write write : this.writes) {
+                    out.write(write.toString());
+                    out.newLine();
+                }
+            }
+            Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException exc) {
+            exc.printStackTrace();
+        }
+    }
+
+    /**
+     * A single queued write.
+     */
+    public static class Write {
+
+        public enum Type {
+            DEACTIVATE, DEACTIVATE_MATCHING, SET_EXPIRATION
+        }
+
+        private final Type type;
+        private final int[] ids;
+        private final Long expiration;
+        private final String player;
+        private final String world;
+
+        private Write(Type type, int[] ids, Long expiration, String player, String world) {
+            this.type = type;
+            this.ids = ids;
+            this.expiration = expiration;
+            this.player = player;
+            this.world = world;
+        }
+
+        public static Write deactivate(int[] ids) {
+            return new Write(Type.DEACTIVATE, ids, null, null, null);
+        }
+
+        public static Write deactivateMatching(String player, String world) {
+            return new Write(Type.DEACTIVATE_MATCHING, new int[0], null, player, world);
+        }
+
+        public static Write setExpiration(int id, Long expiration) {
+            return new Write(Type.SET_EXPIRATION, new int[] { id }, expiration, null, null);
+        }
+
+        public Type getType() {
+            return this.type;
+        }
+
+        public int[] getIds() {
+            return this.ids;
+        }
+
+        public Long getExpiration() {
+            return this.expiration;
+        }
+
+        public String getPlayer() {
+            return this.player;
+        }
+
+        public String getWorld() {
+            return this.world;
+        }
+
+        private static Write parse(String line) {
+            String[] parts = line.trim().split(" ");
+            if (parts[0].equals("D") && parts.length == 2) {
+                return deactivate(Arrays.stream(parts[1].split(",")).mapToInt(Integer::parseInt).toArray());
+            }
+            if (parts[0].equals("M") && parts.length == 3) {
+                return deactivateMatching(decode(parts[1]), decode(parts[2]));
+            }
+            if (parts[0].equals("E") && parts.length == 3) {
+                return setExpiration(Integer.parseInt(parts[1]), parts[2].equals("-") ? null : Long.parseLong(parts[2]));
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            if (this.type == Type.DEACTIVATE) {
+                return "D " + Arrays.stream(this.ids).mapToObj(String::valueOf).collect(Collectors.joining(","));
+            }
+            if (this.type == Type.DEACTIVATE_MATCHING) {
+                return "M " + encode(this.player) + " " + encode(this.world);
+            }
+            return "E " + this.ids[0] + " " + (this.expiration == null ? "-" : this.expiration);
+        }
+
+        private static String encode(String name) {
+            if (name == null) {
+                return "-";
+            }
+            try {
+                return URLEncoder.encode(name, "UTF-8");
+            } catch (UnsupportedEncodingException exc) {
+                throw new IllegalStateException(exc);
+            }
+        }
+
+        private static String decode(String name) {
+            if (name.equals("-")) {
+                return null;
+            }
+            try {
+                return URLDecoder.decode(name, "UTF-8");
+            } catch (UnsupportedEncodingException exc) {
+                throw new IllegalStateException(exc);
+            }
+        }
+    }
+
+}
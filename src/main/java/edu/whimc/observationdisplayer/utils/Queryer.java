@@ -1,20 +1,30 @@
 package edu.whimc.observationdisplayer.utils;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.File;
+import java.io.IOException;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.sql.Timestamp;
-import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.bukkit.Bukkit;
-import org.bukkit.Location;
-import org.bukkit.World;
+import org.bukkit.entity.Player;
 
 import edu.whimc.observationdisplayer.Observation;
 import edu.whimc.observationdisplayer.ObservationDisplayer;
+import edu.whimc.observationdisplayer.utils.ObservationWriter.PendingInsert;
 
 /**
  * Handles storing position data
@@ -23,188 +33,350 @@ import edu.whimc.observationdisplayer.ObservationDisplayer;
  */
 public class Queryer {
 
-    /** Query for inserting an observation into the database. */
-    private static final String QUERY_SAVE_OBSERVATION =
-            "INSERT INTO whimc_observations " +
-            "(time, uuid, username, world, x, y, z, yaw, pitch, observation, active, expiration) " +
-            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-
-    /** Query for getting all observations from the database. */
-    private static final String QUERY_GET_ACTIVE_OBSERVATIONS =
-            "SELECT * " +
-            "FROM whimc_observations " +
-            "WHERE active = 1 AND (expiration IS NULL OR (expiration - time > 0))";
-
-    /** Query for making an observation inactive. */
-    private static final String QUERY_MAKE_OBSERVATION_INACTIVE =
-            "UPDATE whimc_observations " +
-            "SET active=0 " +
-            "WHERE rowid=? AND active=1";
-
-    private static final String QUERY_MAKE_PLAYER_OBSERVATIONS_INACTIVE =
-            "UPDATE whimc_observations " +
-            "SET active=0 " +
-            "WHERE username=? AND active=1";
-
-    private static final String QUERY_MAKE_WORLD_OBSERVATIONS_INACTIVE =
-            "UPDATE whimc_observations " +
-            "SET active=0 " +
-            "WHERE active=1 AND world=?";
-    private static final String QUERY_MAKE_OBSERVATIONS_INACTIVE =
-            "UPDATE whimc_observations " +
-            "SET active=0 " +
-            "WHERE username=? AND active=1 AND world=?";
-
-    private static final String QUERY_MAKE_EXPIRED_INACTIVE =
-            "UPDATE whimc_observations " +
-            "SET active=0 " +
-            "WHERE ? > expiration";
-
-    private static final String QUERY_SET_EXPIRATION =
-            "UPDATE whimc_observations " +
-            "SET expiration=? " +
-            "WHERE rowid=?";
-
-    private static final String QUERY_GET_INACTIVE_ID =
-            "SELECT * " +
-            "FROM whimc_observations " +
-            "WHERE rowid=?";
-
-    private static final String QUERY_GET_INACTIVE_RANGE =
-            "SELECT * " +
-            "FROM whimc_observations " +
-            "WHERE rowid BETWEEN ? AND ?";
-
-    private static final String QUERY_GET_INACTIVE_TIME =
-            "SELECT * " +
-            "FROM whimc_observations " +
-            "WHERE time BETWEEN ? AND ?";
+    /** Connections borrowed outside the executor, by the {@link ObservationWriter} and {@link DeactivationCoalescer}. */
+    private static final int DEDICATED_CONNECTIONS = 2;
 
     private ObservationDisplayer plugin;
-    private MySQLConnection sqlConnection;
+    private StorageBackend sqlConnection;
+    private ObservationStore store;
+    private ThreadPoolExecutor executor;
+    private ObservationWriter writer;
+    private DeactivationCoalescer deactivator;
+    private ObservationJournal journal;
+    private CircuitBreaker breaker;
+    private RetryPolicy retry;
+    private OfflineWriteQueue offlineQueue;
+    private final AtomicBoolean replaying = new AtomicBoolean(false);
+    private int fetchSize;
+    private int hologramsPerTick;
 
     public Queryer(ObservationDisplayer plugin, Consumer<Queryer> callback) {
         this.plugin = plugin;
-        this.sqlConnection = new MySQLConnection(plugin);
+        this.sqlConnection = StorageBackend.fromConfig(plugin);
+        this.store = new ObservationStore(this.sqlConnection);
+        this.executor = newExecutor();
+        this.writer = new ObservationWriter(this,
+                plugin.getConfig().getInt("batching.insert-flush-size", 50),
+                plugin.getConfig().getLong("batching.insert-flush-interval-ms", 250));
+        this.deactivator = new DeactivationCoalescer(this,
+                plugin.getConfig().getLong("batching.deactivate-window-ms", 100));
+        this.fetchSize = plugin.getConfig().getInt("loading.fetch-size", 500);
+        this.hologramsPerTick = plugin.getConfig().getInt("loading.holograms-per-tick", 50);
+        this.journal = openJournal();
+        this.breaker = new CircuitBreaker(
+                plugin.getConfig().getInt("resilience.failure-threshold", 5),
+                plugin.getConfig().getLong("resilience.open-seconds", 30) * 1000);
+        this.retry = new RetryPolicy(this.breaker,
+                plugin.getConfig().getInt("resilience.max-attempts", 3),
+                plugin.getConfig().getLong("resilience.backoff-initial-ms", 200),
+                plugin.getConfig().getLong("resilience.backoff-max-ms", 2000));
+        this.offlineQueue = new OfflineWriteQueue(new File(plugin.getDataFolder(), "offline-writes.txt"),
+                plugin.getConfig().getInt("resilience.offline-queue-capacity", 10000));
 
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            final boolean success = sqlConnection.initialize();
-            Bukkit.getScheduler().runTask(plugin, () -> {
+        async(() -> {
+            Utils.debug("Connecting to " + sqlConnection.getName() + " storage...");
+            final boolean success = sqlConnection.initialize() && replayJournal();
+            Bukkit.getScheduler().runTask(plugin, plugin.getProfiler().wrap("queryer.connected", () -> {
+                if (success) {
+                    startOfflineReplay();
+                }
                 callback.accept(success ? this : null);
-            });
+            }));
         });
     }
 
     /**
-     * Generated a PreparedStatement for saving a new observation.
-     * @param connection MySQL Connection
-     * @param obs Observation to save
-     * @return PreparedStatement
-     * @throws SQLException
+     * Creates the executor that runs queries off the main thread.
+     * It has one thread per pooled connection, minus the connections the writer and coalescer threads
+     * borrow for themselves, and a bounded queue, so a burst of queries waits for a connection in the
+     * queue instead of each holding a thread. What happens once the queue is full is set by
+     * "executor.rejection-policy".
+     */
+    private ThreadPoolExecutor newExecutor() {
+        int poolSize = this.sqlConnection.getPool().getMaxSize();
+        int threads = Math.max(1, poolSize - DEDICATED_CONNECTIONS);
+        if (poolSize < threads + DEDICATED_CONNECTIONS) {
+            this.plugin.getLogger().warning("The connection pool only has " + poolSize + " connection(s), " +
+                    "queries will wait on the writer threads. Use a pool of at least " +
+                    (threads + DEDICATED_CONNECTIONS) + " connections");
+        }
+        int queueSize = Math.max(1, this.plugin.getConfig().getInt("executor.queue-size", 256));
+        AtomicInteger threadCount = new AtomicInteger();
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "ObservationDisplayer-DB-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, newRejectionHandler());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private RejectedExecutionHandler newRejectionHandler() {
+        String policy = this.plugin.getConfig().getString("executor.rejection-policy", "block");
+        switch (policy.toLowerCase()) {
+        case "discard-oldest":
+            return (runnable, executor) -> {
+                if (executor.isShutdown()) {
+                    return;
+                }
+                if (executor.getQueue().poll() != null) {
+                    this.plugin.getLogger().warning("Database queue is full, dropped the oldest queued query");
+                }
+                executor.execute(runnable);
+            };
+        case "abort":
+            return (runnable, executor) -> {
+                if (!executor.isShutdown()) {
+                    this.plugin.getLogger().warning("Database queue is full, dropped a query");
+                }
+            };
+        case "caller-runs":
+            return (runnable, executor) -> {
+                if (executor.isShutdown()) {
+                    return;
+                }
+                if (Bukkit.isPrimaryThread()) {
+                    // Never hold up the server tick with a query
+                    deferQuery(runnable, executor);
+                    return;
+                }
+                // Slows down whoever is flooding the queue by making them run the query themselves
+                Utils.debug("Database queue is full, running query on " + Thread.currentThread().getName());
+                runnable.run();
+            };
+        default:
+            if (!policy.equalsIgnoreCase("block")) {
+                this.plugin.getLogger().warning("Unknown executor rejection policy '" + policy + "', using block");
+            }
+            long timeoutMillis = this.plugin.getConfig().getLong("executor.block-timeout-ms", 5000);
+            return (runnable, executor) -> {
+                if (executor.isShutdown()) {
+                    return;
+                }
+                if (Bukkit.isPrimaryThread()) {
+                    deferQuery(runnable, executor);
+                    return;
+                }
+                offerQuery(runnable, executor, timeoutMillis);
+            };
+        }
+    }
+
+    /**
+     * Hands a query rejected on the main thread to a Bukkit async task, which waits for room in the
+     * queue so the tick does not have to.
+     */
+    private void deferQuery(Runnable runnable, ThreadPoolExecutor executor) {
+        if (!this.plugin.isEnabled()) {
+            this.plugin.getLogger().warning("Database queue is full, dropped a query");
+            return;
+        }
+        Utils.debug("Database queue is full, waiting for room off the main thread");
+        long timeoutMillis = this.plugin.getConfig().getLong("executor.block-timeout-ms", 5000);
+        Bukkit.getScheduler().runTaskAsynchronously(this.plugin,
+                () -> offerQuery(runnable, executor, timeoutMillis));
+    }
+
+    /**
+     * Waits up to the given time for room in the queue, dropping the query if none frees up.
+     */
+    private void offerQuery(Runnable runnable, ThreadPoolExecutor executor, long timeoutMillis) {
+        try {
+            if (!executor.getQueue().offer(runnable, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                this.plugin.getLogger().warning("Database queue stayed full for " + timeoutMillis +
+                        "ms, dropped a query");
+            } else if (executor.isShutdown() && executor.getQueue().remove(runnable)) {
+                // Shut down while waiting, nothing will take it off the queue now
+                Utils.debug("Dropped a query queued during shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.plugin.getLogger().warning("Interrupted while waiting for room in the database queue, dropped a query");
+        }
+    }
+
+    private ObservationJournal openJournal() {
+        if (!this.plugin.getConfig().getBoolean("journal.enabled", true)) {
+            return null;
+        }
+
+        try {
+            return new ObservationJournal(new File(this.plugin.getDataFolder(), "journal"),
+                    this.plugin.getConfig().getInt("journal.capacity", 4096),
+                    this.plugin.getConfig().getInt("journal.heap-size-kb", 2048) * 1024);
+        } catch (IOException e) {
+            this.plugin.getLogger().warning("Could not open the observation journal, new observations " +
+                    "will only be shown once they are stored: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores observations left in the journal by a previous run before anything is loaded.
+     * @return Whether the journal was replayed successfully
+     */
+    private boolean replayJournal() {
+        if (this.journal == null) {
+            return true;
+        }
+
+        List<PendingInsert> pending = this.journal.getPending();
+        if (pending.isEmpty()) {
+            return true;
+        }
+
+        try {
+            // A crash between a batch's commit and its records being marked sent leaves them in the journal
+            Set<PendingInsert> stored = Collections.newSetFromMap(new IdentityHashMap<>());
+            stored.addAll(this.retry.call(() -> this.store.findStored(pending)));
+            stored.forEach(v -> this.journal.markSent(v.journalSeq));
+            List<PendingInsert> unsent = pending.stream()
+                    .filter(v -> !stored.contains(v))
+                    .collect(Collectors.toList());
+            if (unsent.isEmpty()) {
+                return true;
+            }
+            this.plugin.getLogger().info("Replaying " + unsent.size() + " journaled observation(s) " +
+                    "that were not stored before the last shutdown");
+            try {
+                insertObservations(unsent);
+            } catch (SQLException e) {
+                if (!RetryPolicy.isTransient(e)) {
+                    e.printStackTrace();
+                    replayEach(unsent);
+                } else {
+                    throw e;
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Stores journaled observations one at a time after their batch was rejected,
+     * so a record the database will never accept is dropped instead of blocking every start.
+     * @throws SQLException if the database became unreachable
+     */
+    private void replayEach(List<PendingInsert> pending) throws SQLException {
+        List<PendingInsert> rejected = new ArrayList<>();
+        for (PendingInsert insert : pending) {
+            try {
+                insertObservations(Collections.singletonList(insert));
+            } catch (SQLException e) {
+                if (RetryPolicy.isTransient(e)) {
+                    throw e;
+                }
+                rejected.add(insert);
+            }
+        }
+        if (!rejected.isEmpty()) {
+            abandonObservations(rejected);
+        }
+    }
+
+    /**
+     * @return Whether new observations are journaled, and can therefore be shown before they are stored
      */
-    private PreparedStatement getStatement(Connection connection, Observation obs) throws SQLException {
-        PreparedStatement statement = connection.prepareStatement(QUERY_SAVE_OBSERVATION, Statement.RETURN_GENERATED_KEYS);
-
-        Location loc = obs.getViewLocation();
-        String world = loc.getWorld().getName();
-        double x = loc.getX();
-        double y = loc.getY();
-        double z = loc.getZ();
-        float yaw = loc.getYaw();
-        float pitch = loc.getPitch();
-
-        statement.setLong(1, obs.getTimestamp().getTime());
-        statement.setString(2, Bukkit.getPlayer(obs.getPlayer()).getUniqueId().toString());
-        statement.setString(3, obs.getPlayer());
-        statement.setString(4, world);
-        statement.setDouble(5, x);
-        statement.setDouble(6, y);
-        statement.setDouble(7, z);
-        statement.setFloat(8, yaw);
-        statement.setFloat(9, pitch);
-        statement.setString(10, obs.getObservation());
-        statement.setBoolean(11, true);
-        statement.setLong(12, obs.getExpiration().getTime());
-
-        return statement;
+    public boolean isJournaling() {
+        return this.journal != null;
     }
 
     /**
-     * Stores an observation into the database and returns the obervation's ID
+     * Queues an observation to be stored into the database and returns the obervation's ID
      * @param observation Observation to save
      * @param callback Function to call once the observation has been saved
      */
     public void storeNewObservation(Observation observation, Consumer<Integer> callback) {
-        async(() -> {
-            Utils.debug("Storing observation to database:");
+        PendingInsert insert = PendingInsert.of(observation, callback);
+        if (this.journal != null) {
+            insert.journalSeq = this.journal.append(insert);
+            if (insert.journalSeq < 0) {
+                Utils.debug("Observation journal is full, storing observation without journaling it");
+            }
+        }
+        this.writer.enqueue(insert);
+    }
 
-            try (Connection connection = this.sqlConnection.getConnection()) {
-                try (PreparedStatement statement = getStatement(connection, observation)) {
-                    String query = statement.toString().substring(statement.toString().indexOf(" ") + 1);
-                    Utils.debug("  " + query);
-                    statement.executeUpdate();
+    /**
+     * Stores a batch of observations using a single JDBC batch.
+     * @param batch Observations to save
+     * @return The generated ID of each observation, in the same order as the batch
+     * @throws SQLException
+     */
+    int[] insertObservations(List<PendingInsert> batch) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return this.retry.call(() -> writeObservations(batch));
+        } finally {
+            this.plugin.getMetrics().timer("db.insert").recordSince(start);
+        }
+    }
 
-                    try (ResultSet idRes = statement.getGeneratedKeys()) {
-                        idRes.next();
-                        int id = idRes.getInt(1);
+    /**
+     * Gives up on storing observations that the database rejected, so they are not replayed from the journal.
+     * @param batch Observations that could not be stored
+     */
+    void abandonObservations(List<PendingInsert> batch) {
+        this.plugin.getLogger().severe("Dropping " + batch.size() + " observation(s) that the database rejected");
+        for (PendingInsert insert : batch) {
+            this.plugin.getLogger().severe("  " + insert.username + " in " + insert.world + ": " + insert.observation);
+        }
+        if (this.journal != null) {
+            batch.stream().filter(v -> v.journalSeq >= 0).forEach(v -> this.journal.markSent(v.journalSeq));
+        }
 
-                        Utils.debug("Observation saved with id " + id + ".");
-                        sync(callback, id);
-                    }
+        // Journaled observations are shown before they are stored, take them back down
+        sync(() -> {
+            for (PendingInsert insert : batch) {
+                if (insert.source != null) {
+                    insert.source.deleteHologramOnly();
+                }
+                Player player = Bukkit.getPlayer(insert.username);
+                if (player != null) {
+                    Utils.msg(player, "&cYour observation \"&f" + insert.observation + "&c\" could not be saved, please make it again");
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
             }
         });
     }
 
+    private int[] writeObservations(List<PendingInsert> batch) throws SQLException {
+        int[] ids = this.store.insert(batch);
+        // A crash before this leaves the records in the journal, replayJournal skips them
+        if (this.journal != null) {
+            batch.stream().filter(v -> v.journalSeq >= 0).forEach(v -> this.journal.markSent(v.journalSeq));
+        }
+        return ids;
+    }
+
     /**
-     * Loads observations from the database.
+     * Loads the active observations of a world from the database.
+     * Rows are streamed in using the configured fetch size and turned into observations
+     * on the main thread a limited number per tick.
+     * @param world Name of the world
+     * @param callback Function to call with the number of observations loaded
      */
-    public void loadObservations(Runnable callback) {
+    public void loadWorldObservations(String world, Consumer<Integer> callback) {
+        ObservationMaterializer materializer = newMaterializer("observations in '" + world + "'", false, callback);
+        materializer.start();
+
         async(() -> {
-            Utils.debug("Loading observations:");
-            try (Connection connection = this.sqlConnection.getConnection()) {
-                try (Statement statement = connection.createStatement()) {
-                    Utils.debug("  " + QUERY_GET_ACTIVE_OBSERVATIONS);
-                    try (ResultSet results = statement.executeQuery(QUERY_GET_ACTIVE_OBSERVATIONS)) {
-                        Utils.debug("Observations found:");
-                        while (results.next()) {
-                            int id = results.getInt("rowid");
-                            Timestamp timestamp = new Timestamp(results.getLong("time"));
-                            String name = results.getString("username");
-                            String worldName = results.getString("world");
-                            double x = results.getDouble("x");
-                            double y = results.getDouble("y");
-                            double z = results.getDouble("z");
-                            float yaw = results.getFloat("yaw");
-                            float pitch = results.getFloat("pitch");
-                            String observation = results.getString("observation");
-                            long expNum = results.getLong("expiration");
-                            Timestamp expiration = expNum == 0 ? null : new Timestamp(expNum);
-
-                            sync(() -> {
-                                World world = Bukkit.getWorld(worldName);
-                                if (world == null) {
-                                    Utils.debug("  - "  + id + " | world '" + worldName + "' not found -> skipping");
-                                    return;
-                                }
-                                Location loc = new Location(world, x, y, z, yaw, pitch);
-
-                                Utils.debug("  - " + id +
-                                        " | " + timestamp.getTime() +
-                                        " | " + name +
-                                        " | (" + loc.getBlockX() + ", " + loc.getBlockY() + ", " + loc.getBlockZ() + ")" +
-                                        " | " + observation + " | " +
-                                        " | " + (expiration == null ? "n/a" : expiration.getTime()));
-                                Observation.loadObservation(plugin, id, timestamp, name, loc, observation, expiration);
-                            });
-                        }
-                        sync(callback);
-                    }
-                }
+            Utils.debug("Loading observations in world '" + world + "':");
+            long start = System.nanoTime();
+            try {
+                this.retry.call(() -> {
+                    this.store.streamWorld(world, System.currentTimeMillis(), this.fetchSize, materializer::offer);
+                    return null;
+                });
             } catch (SQLException e) {
                 e.printStackTrace();
+            } finally {
+                this.plugin.getMetrics().timer("db.load").recordSince(start);
+                materializer.finish();
             }
         });
     }
@@ -214,61 +386,110 @@ public class Queryer {
      * @param id Id of the observation
      */
     public void makeSingleObservationInactive(int id, Runnable callback) {
-        Utils.debug("Making observation id " + id + " inactive:");
+        Utils.debug("Queueing observation id " + id + " to be made inactive");
+        this.deactivator.enqueue(new int[] { id }, callback);
+    }
+
+    /**
+     * Makes observations inactive in the database.
+     * @param ids Ids of the observations
+     * @param callback Function to call once the observations have been made inactive
+     */
+    public void makeObservationsInactive(int[] ids, Runnable callback) {
+        Utils.debug("Queueing " + ids.length + " observation(s) to be made inactive");
+        this.deactivator.enqueue(ids, callback);
+    }
+
+    /**
+     * Makes every active observation of a player and/or world inactive in the database, including
+     * observations in worlds that are not loaded.
+     * @param player Name of the player, or null for any player
+     * @param world Name of the world, or null for any world
+     * @param callback Function to call with the number of observations made inactive,
+     *                 or -1 if the update was queued until the database is reachable
+     */
+    public void makeObservationsInactive(String player, String world, Consumer<Integer> callback) {
         async(() -> {
-            try (Connection connection = this.sqlConnection.getConnection()) {
-                try (PreparedStatement statement = connection.prepareStatement(QUERY_MAKE_OBSERVATION_INACTIVE)) {
-                    statement.setInt(1, id);
-
-                    Utils.debug("  " + QUERY_MAKE_OBSERVATION_INACTIVE);
-                    statement.executeUpdate();
-                    Utils.debug("Observation set as inactive.");
-                    sync(callback);
-                }
+            if (!this.offlineQueue.isEmpty()) {
+                deferWrite(OfflineWriteQueue.Write.deactivateMatching(player, world));
+                sync(callback, -1);
+                return;
+            }
+
+            long start = System.nanoTime();
+            try {
+                sync(callback, this.retry.call(() -> this.store.deactivateMatching(player, world)));
             } catch (SQLException exc) {
-                exc.printStackTrace();
+                if (!RetryPolicy.isTransient(exc)) {
+                    exc.printStackTrace();
+                    return;
+                }
+                deferWrite(OfflineWriteQueue.Write.deactivateMatching(player, world));
+                sync(callback, -1);
+            } finally {
+                this.plugin.getMetrics().timer("db.deactivate").recordSince(start);
             }
         });
     }
 
-    public String getInactiveQuery(String world, String player) {
-        if (player == null) {
-            return QUERY_MAKE_WORLD_OBSERVATIONS_INACTIVE;
-        }
-        if (world == null) {
-            return QUERY_MAKE_PLAYER_OBSERVATIONS_INACTIVE;
+    /**
+     * Makes observations inactive, queueing the write to be replayed later if the database is unreachable.
+     * @param ids Ids of the observations
+     * @return The number of rows that were made inactive
+     * @throws SQLException if the database rejected the update
+     */
+    int deactivateObservations(Collection<Integer> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return 0;
         }
-        return QUERY_MAKE_OBSERVATIONS_INACTIVE;
-    }
 
-    public void makeObservationsInactive(String world, String player, Consumer<Integer> callback) {
-        String query = getInactiveQuery(world, player);
+        int[] idArray = ids.stream().mapToInt(Integer::intValue).toArray();
+        // Writes queued earlier must reach the database first
+        if (!this.offlineQueue.isEmpty()) {
+            deferWrite(OfflineWriteQueue.Write.deactivate(idArray));
+            return 0;
+        }
 
-        async(() -> {
-            try (Connection connection = this.sqlConnection.getConnection()) {
-                try (PreparedStatement statement = connection.prepareStatement(query)) {
-                    int ind = 1;
-                    if (player != null) {
-                        statement.setString(ind++, player);
-                    }
-                    if (world != null) {
-                        statement.setString(ind++, world);
-                    }
-                    sync(callback, statement.executeUpdate());
-                }
-            } catch (SQLException e) {
-                e.printStackTrace();
+        long start = System.nanoTime();
+        try {
+            return this.retry.call(() -> this.store.deactivate(idArray));
+        } catch (SQLException e) {
+            if (!RetryPolicy.isTransient(e)) {
+                throw e;
             }
-        });
+            deferWrite(OfflineWriteQueue.Write.deactivate(idArray));
+            return 0;
+        } finally {
+            this.plugin.getMetrics().timer("db.deactivate").recordSince(start);
+        }
+    }
+
+    /**
+     * Periodically makes active rows that have already expired inactive.
+     * Observations that expire while loaded are made inactive by id as they expire, so this only
+     * catches rows that expired while the server was down or their world was not loaded.
+     */
+    public void startExpirySweep() {
+        long interval = Math.max(1, this.plugin.getConfig().getLong("expiry.sweep-interval-minutes", 10)) * 20 * 60;
+        int limit = Math.max(1, this.plugin.getConfig().getInt("expiry.sweep-limit", 500));
+
+        Bukkit.getScheduler().runTaskTimer(this.plugin, this.plugin.getProfiler().wrap("expiry.sweep", () -> {
+            sweepExpiredObservations(limit, count -> {
+                Utils.debug("Expiry sweep made " + count + " expired observation(s) inactive" +
+                        (count == limit ? " (limit reached, more will be swept next time)" : ""));
+            });
+        }), 20 * 10, interval);
     }
 
-    public void makeExpiredObservationsInactive(Consumer<Integer> callback) {
+    /**
+     * Makes at most {@code limit} active but expired rows inactive.
+     * @param limit Maximum number of rows to update
+     * @param callback Function to call with the number of rows made inactive
+     */
+    public void sweepExpiredObservations(int limit, Consumer<Integer> callback) {
         async(() -> {
-            try (Connection connection = this.sqlConnection.getConnection()) {
-                try (PreparedStatement statement = connection.prepareStatement(QUERY_MAKE_EXPIRED_INACTIVE)) {
-                    statement.setLong(1, System.currentTimeMillis());
-                    sync(callback, statement.executeUpdate());
-                }
+            try {
+                sync(callback, this.retry.call(() -> this.store.deactivateExpired(System.currentTimeMillis(), limit)));
             } catch (SQLException e) {
                 e.printStackTrace();
             }
@@ -276,115 +497,248 @@ public class Queryer {
     }
 
     public void reactivateObservations(Timestamp start, Timestamp end, Consumer<Integer> callback) {
-        loadTemporaryObservation(QUERY_GET_INACTIVE_TIME, statement -> {
-            try {
-                statement.setLong(1, start.getTime());
-                statement.setLong(2, end.getTime());
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-        }, callback);
+        loadTemporaryObservations(consumer -> this.store.streamTimeRange(start.getTime(), end.getTime(), this.fetchSize, consumer), callback);
     }
 
     public void reactivateObservations(int startId, int endId, Consumer<Integer> callback) {
-        loadTemporaryObservation(QUERY_GET_INACTIVE_RANGE, statement -> {
-            try {
-                statement.setInt(1, startId);
-                statement.setInt(2, endId);
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-        }, callback);
+        loadTemporaryObservations(consumer -> this.store.streamIdRange(startId, endId, this.fetchSize, consumer), callback);
     }
 
     public void reactivateObservation(int id, Consumer<Integer> callback) {
-        loadTemporaryObservation(QUERY_GET_INACTIVE_ID, statement -> {
-            try {
-                statement.setInt(1, id);
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-        }, callback);
+        loadTemporaryObservations(consumer -> this.store.streamId(id, this.fetchSize, consumer), callback);
     }
 
-    private void loadTemporaryObservation(String query, Consumer<PreparedStatement> prepare, Consumer<Integer> callback) {
+    /**
+     * Loads the rows a query streams as temporary observations, skipping any that are already loaded.
+     */
+    private void loadTemporaryObservations(StoreQuery query, Consumer<Integer> callback) {
+        ObservationMaterializer materializer = newMaterializer("reactivated observations", true, callback);
+        materializer.start();
+
         async(() -> {
-            try (Connection connection = this.sqlConnection.getConnection()) {
-                try (PreparedStatement statement = connection.prepareStatement(query)) {
-                    prepare.accept(statement);
-                    try (ResultSet results = statement.executeQuery()) {
-                        int count = 0;
-                        while (results.next()) {
-                            int id = results.getInt("rowid");
-                            if (Observation.getObservation(id) != null) {
-                                continue;
-                            }
-                            count++;
-                            Timestamp timestamp = new Timestamp(results.getLong("time"));
-                            String name = results.getString("username");
-                            String worldName = results.getString("world");
-                            double x = results.getDouble("x");
-                            double y = results.getDouble("y");
-                            double z = results.getDouble("z");
-                            float yaw = results.getFloat("yaw");
-                            float pitch = results.getFloat("pitch");
-                            String observation = results.getString("observation");
-                            long expNum = results.getLong("expiration");
-                            Timestamp expiration = expNum == 0 ? null : new Timestamp(expNum);
-
-                            sync(() -> {
-                                World world = Bukkit.getWorld(worldName);
-                                if (world == null) {
-                                    Utils.debug("  - "  + id + " | world '" + worldName + "' not found -> skipping");
-                                    return;
-                                }
-                                Location loc = new Location(world, x, y, z, yaw, pitch);
-
-                                Utils.debug("  - " + id +
-                                        " | " + timestamp.getTime() +
-                                        " | " + name +
-                                        " | (" + loc.getBlockX() + ", " + loc.getBlockY() + ", " + loc.getBlockZ() + ")" +
-                                        " | " + observation + " | " +
-                                        " | " + (expiration == null ? "n/a" : expiration.getTime()));
-                                Observation.loadTemporaryObservation(plugin, id, timestamp, name, loc, observation, expiration);
-                            });
+            try {
+                this.retry.call(() -> {
+                    query.stream(record -> {
+                        if (Observation.getObservation(record.getId()) == null) {
+                            materializer.offer(record);
                         }
-                        sync(callback, count);
-                    }
-                }
+                    });
+                    return null;
+                });
             } catch (SQLException e) {
                 e.printStackTrace();
+            } finally {
+                materializer.finish();
             }
         });
     }
 
+    /** Streams rows from {@link ObservationStore} to a consumer. */
+    private interface StoreQuery {
+        void stream(Consumer<ObservationRecord> consumer) throws SQLException;
+    }
+
     public void setExpiration(int id, Timestamp newExpiration, Runnable callback) {
+        Long expiration = newExpiration == null ? null : newExpiration.getTime();
         async(() -> {
-            try (Connection connection = this.sqlConnection.getConnection()) {
-                try (PreparedStatement statement = connection.prepareStatement(QUERY_SET_EXPIRATION)) {
-                    statement.setObject(1, newExpiration == null ? null : newExpiration.getTime(), Types.BIGINT);
-                    statement.setInt(2, id);
-                    statement.executeUpdate();
-                    sync(callback);
-                }
+            if (!this.offlineQueue.isEmpty()) {
+                deferWrite(OfflineWriteQueue.Write.setExpiration(id, expiration));
+                sync(callback);
+                return;
+            }
+
+            long start = System.nanoTime();
+            try {
+                this.retry.call(() -> this.store.setExpiration(id, expiration));
+                sync(callback);
             } catch (SQLException exc) {
-                exc.printStackTrace();
+                if (!RetryPolicy.isTransient(exc)) {
+                    exc.printStackTrace();
+                    return;
+                }
+                deferWrite(OfflineWriteQueue.Write.setExpiration(id, expiration));
+                sync(callback);
+            } finally {
+                this.plugin.getMetrics().timer("db.set-expiration").recordSince(start);
             }
         });
     }
 
-    private <T> void sync(Consumer<T> cons, T val) {
-        Bukkit.getScheduler().runTask(this.plugin, () -> {
-            cons.accept(val);
-        });
+    /**
+     * Queues a write that could not reach the database to be replayed once it is reachable again.
+     */
+    private void deferWrite(OfflineWriteQueue.Write write) {
+        if (this.offlineQueue.add(write)) {
+            Utils.debug("Database unavailable, queued write for later: " + write);
+            return;
+        }
+        this.plugin.getLogger().severe("Offline write queue is full (" + this.offlineQueue.getCapacity() +
+                " writes), dropping write: " + write);
+    }
+
+    /**
+     * Periodically replays queued writes once the circuit breaker lets calls through again.
+     */
+    private void startOfflineReplay() {
+        long interval = Math.max(1, this.plugin.getConfig().getLong("resilience.replay-interval-seconds", 10)) * 20;
+        if (!this.offlineQueue.isEmpty()) {
+            this.plugin.getLogger().info(this.offlineQueue.size() + " write(s) queued while the database " +
+                    "was unavailable will be replayed");
+        }
+        Bukkit.getScheduler().runTaskTimer(this.plugin, this.plugin.getProfiler().wrap("offline.replay", () -> {
+            if (!this.offlineQueue.isEmpty()) {
+                async(this::replayOfflineWrites);
+            }
+        }), interval, interval);
+    }
+
+    private void replayOfflineWrites() {
+        if (this.offlineQueue.isEmpty() || !this.replaying.compareAndSet(false, true)) {
+            return;
+        }
+
+        int replayed = 0;
+        try {
+            OfflineWriteQueue.Write write;
+            while ((write = this.offlineQueue.peek()) != null) {
+                try {
+                    replayWrite(write);
+                } catch (SQLException exc) {
+                    if (RetryPolicy.isTransient(exc)) {
+                        // Still unreachable, try again next time
+                        return;
+                    }
+                    exc.printStackTrace();
+                }
+                this.offlineQueue.removeFirst();
+                replayed++;
+            }
+        } finally {
+            this.offlineQueue.compact();
+            this.replaying.set(false);
+            if (replayed > 0) {
+                this.plugin.getLogger().info("Replayed " + replayed + " write(s) queued while the database was unavailable");
+            }
+        }
+    }
+
+    private void replayWrite(OfflineWriteQueue.Write write) throws SQLException {
+        switch (write.getType()) {
+        case DEACTIVATE:
+            this.retry.call(() -> this.store.deactivate(write.getIds()));
+            break;
+        case SET_EXPIRATION:
+            this.retry.call(() -> this.store.setExpiration(write.getIds()[0], write.getExpiration()));
+            break;
+        case DEACTIVATE_MATCHING:
+            this.retry.call(() -> this.store.deactivateMatching(write.getPlayer(), write.getWorld()));
+            break;
+        }
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return this.breaker;
+    }
+
+    public OfflineWriteQueue getOfflineQueue() {
+        return this.offlineQueue;
+    }
+
+    public StorageBackend getStorage() {
+        return this.sqlConnection;
+    }
+
+    public int getPendingInserts() {
+        return this.writer.getUnsavedCount();
+    }
+
+    public int getActiveQueries() {
+        return this.executor.getActiveCount();
+    }
+
+    public int getQueuedQueries() {
+        return this.executor.getQueue().size();
     }
 
-    private void sync(Runnable runnable) {
-        Bukkit.getScheduler().runTask(this.plugin, runnable);
+    public int getPendingDeactivations() {
+        return this.deactivator.getQueueSize();
+    }
+
+    public int getJournaledObservations() {
+        return this.journal == null ? 0 : this.journal.getPendingCount();
+    }
+
+    /**
+     * Stops accepting queries, flushes everything that is queued and releases all database resources.
+     * Work that cannot be written before the deadline is kept in the journal or the offline write queue.
+     * @param timeoutMillis Time allowed for the whole shutdown
+     */
+    public void close(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long start = System.nanoTime();
+
+        // Queued queries may still hand work to the writer and deactivator, so they are drained first
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(remainingMillis(deadline), TimeUnit.MILLISECONDS)) {
+                this.plugin.getLogger().warning("Gave up waiting on " + this.executor.getQueue().size() +
+                        " queued database queries");
+            }
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+        start = logStage("Drained queued queries", start);
+
+        this.writer.shutdown(remainingMillis(deadline));
+        int unsaved = this.writer.getUnsavedCount();
+        if (unsaved > 0) {
+            this.plugin.getLogger().warning(unsaved + " observation(s) could not be stored " +
+                    "in time" + (this.journal == null ? " and were lost" : ", they will be stored on the next start"));
+        }
+        start = logStage("Flushed new observations", start);
+
+        this.deactivator.shutdown(remainingMillis(deadline));
+        int[] unwritten = this.deactivator.drainQueuedIds();
+        if (unwritten.length > 0) {
+            deferWrite(OfflineWriteQueue.Write.deactivate(unwritten));
+        }
+        start = logStage("Flushed deactivations", start);
+
+        this.sqlConnection.close();
+        if (this.journal != null) {
+            this.journal.close();
+        }
+        logStage("Closed " + this.sqlConnection.getName() + " storage", start);
+    }
+
+    private long logStage(String stage, long start) {
+        long now = System.nanoTime();
+        this.plugin.getLogger().info(stage + " in " + TimeUnit.NANOSECONDS.toMillis(now - start) + "ms");
+        return now;
+    }
+
+    private static long remainingMillis(long deadline) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    private ObservationMaterializer newMaterializer(String description, boolean temporary, Consumer<Integer> onFinished) {
+        return new ObservationMaterializer(this.plugin, description, this.hologramsPerTick, temporary, onFinished);
+    }
+
+    <T> void sync(Consumer<T> cons, T val) {
+        sync(() -> cons.accept(val));
+    }
+
+    void sync(Runnable runnable) {
+        // Callbacks can no longer be scheduled once the plugin is disabled
+        if (!this.plugin.isEnabled()) {
+            return;
+        }
+        Bukkit.getScheduler().runTask(this.plugin, this.plugin.getProfiler().wrap("queryer.callback", runnable));
     }
 
     private void async(Runnable runnable) {
-        Bukkit.getScheduler().runTaskAsynchronously(this.plugin, runnable);
+        this.executor.execute(runnable);
     }
 
 
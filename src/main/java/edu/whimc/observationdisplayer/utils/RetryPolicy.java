@@ -0,0 +1,101 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+
+/**
+ * Runs database calls with bounded retries and exponential backoff.
+ * Only failures that look transient (lost connections, timeouts, deadlocks) are retried, and only
+ * those count towards opening the {@link CircuitBreaker}, apart from timeouts waiting for a pooled
+ * connection. Errors such as bad SQL fail right away.
+ */
+public class RetryPolicy {
+
+    private final CircuitBreaker breaker;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    public RetryPolicy(CircuitBreaker breaker, int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        this.breaker = breaker;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffMillis = Math.max(0, initialBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.initialBackoffMillis, maxBackoffMillis);
+    }
+
+    /**
+     * Runs a call, retrying it while it fails with a transient error.
+     * @param call The database call
+     * @return The call's result
+     * @throws SQLException the last failure, or a {@link SQLTransientConnectionException} if the
+     *                      circuit breaker is open
+     */
+    public <T> T call(SqlCall<T> call) throws SQLException {
+        long backoff = this.initialBackoffMillis;
+        for (int attempt = 1; ; attempt++) {
+            if (!this.breaker.allowRequest()) {
+                throw new SQLTransientConnectionException("Circuit breaker is open, not calling the database");
+            }
+
+            try {
+                T result = call.call();
+                this.breaker.recordSuccess();
+                return result;
+            } catch (SQLException exc) {
+                if (exc instanceof ConnectionPool.PoolClosedException) {
+                    // Shutting down, the database was never asked
+                    this.breaker.recordSkipped();
+                    throw exc;
+                }
+                if (!isTransient(exc)) {
+                    // The database answered, it just did not like the query
+                    this.breaker.recordSuccess();
+                    throw exc;
+                }
+
+                if (exc instanceof ConnectionPool.BorrowTimeoutException) {
+                    // Every connection was busy, which says nothing about the database itself
+                    this.breaker.recordSkipped();
+                } else {
+                    this.breaker.recordFailure();
+                }
+                if (attempt >= this.maxAttempts || this.breaker.getState() == CircuitBreaker.State.OPEN) {
+                    throw exc;
+                }
+                Utils.debug("Database call failed (attempt " + attempt + "/" + this.maxAttempts + "), " +
+                        "retrying in " + backoff + "ms: " + exc.getMessage());
+            }
+
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                throw new SQLTransientConnectionException("Interrupted while waiting to retry", exc);
+            }
+            backoff = Math.min(this.maxBackoffMillis, backoff * 2);
+        }
+    }
+
+    /**
+     * @return Whether the failure is likely to go away if the call is retried
+     */
+    public static boolean isTransient(SQLException exc) {
+        if (exc instanceof SQLTransientException || exc instanceof SQLRecoverableException ||
+                exc instanceof SQLNonTransientConnectionException) {
+            return true;
+        }
+
+        // 08: connection exception, 40: transaction rollback (deadlocks, serialization failures)
+        String state = exc.getSQLState();
+        return state != null && (state.startsWith("08") || state.startsWith("40"));
+    }
+
+    @FunctionalInterface
+    public interface SqlCall<T> {
+        T call() throws SQLException;
+    }
+
+}
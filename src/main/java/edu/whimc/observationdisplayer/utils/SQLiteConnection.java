@@ -0,0 +1,99 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.whimc.observationdisplayer.ObservationDisplayer;
+
+/**
+ * Stores observations in a local SQLite file inside the plugin's data folder.
+ * The database runs in WAL mode so reads, such as a long world load, do not block the single writer
+ * or each other. Connections that want to write at the same time wait for each other for up to the
+ * busy timeout instead of failing.
+ */
+public class SQLiteConnection extends StorageBackend {
+
+    public static final String DRIVER_CLASS = "org.sqlite.JDBC";
+    public static final String URL_TEMPLATE = "jdbc:sqlite:%s?journal_mode=WAL&busy_timeout=%d";
+    /** Initial table definition, applied by the first schema migration. */
+    public static final String CREATE_TABLE =
+            "CREATE TABLE IF NOT EXISTS `whimc_observations` (" +
+            "  `rowid`       INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL," +
+            "  `time`        BIGINT                NOT NULL," +
+            "  `uuid`        VARCHAR(36)           NOT NULL," +
+            "  `username`    VARCHAR(16)           NOT NULL," +
+            "  `world`       VARCHAR(64)           NOT NULL," +
+            "  `x`           DOUBLE                NOT NULL," +
+            "  `y`           DOUBLE                NOT NULL," +
+            "  `z`           DOUBLE                NOT NULL," +
+            "  `yaw`         FLOAT                 NOT NULL," +
+            "  `pitch`       FLOAT                 NOT NULL," +
+            "  `observation` TEXT                  NOT NULL," +
+            "  `active`      BOOLEAN               NOT NULL," +
+            "  `expiration`  BIGINT                        );";
+    public static final String CREATE_UUID_INDEX =
+            "CREATE INDEX IF NOT EXISTS idx_uuid ON whimc_observations (uuid);";
+    public static final String CREATE_USERNAME_INDEX =
+            "CREATE INDEX IF NOT EXISTS idx_username ON whimc_observations (username);";
+
+    private File file;
+
+    public SQLiteConnection(ObservationDisplayer plugin) {
+        this(plugin, new File(plugin.getDataFolder(), plugin.getConfig().getString("sqlite.file", "observations.db")),
+                plugin.getConfig().getInt("sqlite.pool-size", 4),
+                plugin.getConfig().getLong("sqlite.borrow-timeout-ms", 10000));
+    }
+
+    /**
+     * Opens a database file outside of a running plugin.
+     * The pool is not evicted on a timer, so {@link #initialize()} must not be called.
+     */
+    SQLiteConnection(File file, int poolSize, long borrowTimeoutMillis) {
+        this(null, file, poolSize, borrowTimeoutMillis);
+    }
+
+    private SQLiteConnection(ObservationDisplayer plugin, File file, int poolSize, long borrowTimeoutMillis) {
+        super(plugin);
+        this.file = file;
+        this.pool = new ConnectionPool(String.format(URL_TEMPLATE, this.file.getAbsolutePath(), borrowTimeoutMillis),
+                null, null, 1, poolSize, 2, Long.MAX_VALUE, borrowTimeoutMillis);
+    }
+
+    @Override
+    public boolean initialize() {
+        this.file.getParentFile().mkdirs();
+        return super.initialize();
+    }
+
+    @Override
+    public String getName() {
+        return "SQLite";
+    }
+
+    @Override
+    protected String getDriverClass() {
+        return DRIVER_CLASS;
+    }
+
+    @Override
+    public List<String> getCreateTableQueries() {
+        return Arrays.asList(CREATE_TABLE, CREATE_UUID_INDEX, CREATE_USERNAME_INDEX);
+    }
+
+    @Override
+    public boolean supportsBatchGeneratedKeys() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsUpdateLimit() {
+        return false;
+    }
+
+    @Override
+    public String getIgnoreCaseCollation() {
+        return " COLLATE NOCASE";
+    }
+
+}
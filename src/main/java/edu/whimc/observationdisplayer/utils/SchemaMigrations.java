@@ -0,0 +1,153 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Brings the database schema up to date by running every migration newer than the
+ * version recorded in the schema version table, in order.
+ * Migrations must only ever be appended to {@link #MIGRATIONS} and never edited once released.
+ */
+public class SchemaMigrations {
+
+    private static final String TABLE = "whimc_observations";
+
+    private static final String CREATE_VERSION_TABLE =
+            "CREATE TABLE IF NOT EXISTS `whimc_observations_schema_version` (" +
+            "  `version`     INT                   NOT NULL," +
+            "  `description` VARCHAR(128)          NOT NULL," +
+            "  `applied`     BIGINT                NOT NULL," +
+            "  PRIMARY KEY    (`version`));";
+
+    private static final String QUERY_GET_VERSION =
+            "SELECT MAX(version) " +
+            "FROM whimc_observations_schema_version";
+
+    private static final String QUERY_SET_VERSION =
+            "INSERT INTO whimc_observations_schema_version " +
+            "(version, description, applied) " +
+            "VALUES (?, ?, ?)";
+
+    private static final List<Migration> MIGRATIONS = Arrays.asList(
+            new Migration(1, "Create observations table",
+                    (connection, storage) -> {
+                        for (String query : storage.getCreateTableQueries()) {
+                            execute(connection, query);
+                        }
+                    }),
+            new Migration(2, "Index active/world, active/expiration and time",
+                    (connection, storage) -> {
+                        createIndex(connection, "idx_active_world", "active", "world");
+                        createIndex(connection, "idx_active_expiration", "active", "expiration");
+                        createIndex(connection, "idx_time", "time");
+                    }),
+            new Migration(3, "Index username and active/world ignoring case where names are compared by case",
+                    (connection, storage) -> {
+                        String collation = storage.getIgnoreCaseCollation();
+                        if (collation.isEmpty()) {
+                            return;
+                        }
+                        createIndex(connection, "idx_username_nocase", "username" + collation);
+                        createIndex(connection, "idx_active_world_nocase", "active", "world" + collation);
+                    })
+            );
+
+    private SchemaMigrations() {}
+
+    /**
+     * Runs every migration that has not been applied to the database yet.
+     * @param storage Database to migrate
+     * @throws SQLException if a migration fails; later migrations are not attempted
+     */
+    public static void migrate(StorageBackend storage) throws SQLException {
+        try (Connection connection = storage.getConnection()) {
+            migrate(connection, storage);
+        }
+    }
+
+    private static void migrate(Connection connection, StorageBackend storage) throws SQLException {
+        execute(connection, CREATE_VERSION_TABLE);
+        int current = getVersion(connection);
+
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= current) {
+                continue;
+            }
+
+            Utils.debug("Applying schema migration " + migration.version + ": " + migration.description);
+            migration.step.apply(connection, storage);
+
+            try (PreparedStatement statement = connection.prepareStatement(QUERY_SET_VERSION)) {
+                statement.setInt(1, migration.version);
+                statement.setString(2, migration.description);
+                statement.setLong(3, System.currentTimeMillis());
+                statement.executeUpdate();
+            }
+            current = migration.version;
+        }
+
+        Utils.debug("Database schema is at version " + current);
+    }
+
+    public static int getLatestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    private static int getVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet results = statement.executeQuery(QUERY_GET_VERSION)) {
+                return results.next() ? results.getInt(1) : 0;
+            }
+        }
+    }
+
+    private static void execute(Connection connection, String query) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            Utils.debug("  " + query);
+            statement.execute(query);
+        }
+    }
+
+    /**
+     * Creates an index unless an index with the same name already exists,
+     * so a migration that was interrupted part way through can be run again.
+     */
+    private static void createIndex(Connection connection, String name, String... columns) throws SQLException {
+        DatabaseMetaData meta = connection.getMetaData();
+        try (ResultSet indexes = meta.getIndexInfo(connection.getCatalog(), null, TABLE, false, false)) {
+            while (indexes.next()) {
+                if (name.equalsIgnoreCase(indexes.getString("INDEX_NAME"))) {
+                    Utils.debug("  Index " + name + " already exists -> skipping");
+                    return;
+                }
+            }
+        }
+
+        execute(connection, "CREATE INDEX " + name + " ON " + TABLE + " (" + String.join(", ", columns) + ")");
+    }
+
+    @FunctionalInterface
+    private interface MigrationStep {
+        void apply(Connection connection, StorageBackend storage) throws SQLException;
+    }
+
+    private static class Migration {
+
+        private final int version;
+        private final String description;
+        private final MigrationStep step;
+
+        private Migration(int version, String description, MigrationStep step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.bukkit.Bukkit;
+
+import edu.whimc.observationdisplayer.ObservationDisplayer;
+
+/**
+ * A database that observations can be stored in.
+ * Implementations provide a pool of connections to their database and describe where
+ * its SQL dialect differs, so {@link Queryer} can run the same queries against any of them.
+ */
+public abstract class StorageBackend {
+
+    /** How often idle pooled connections are checked for eviction (in ticks). */
+    private static final long EVICTION_INTERVAL = 20 * 60;
+
+    protected ObservationDisplayer plugin;
+    protected ConnectionPool pool;
+
+    protected StorageBackend(ObservationDisplayer plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Creates the storage backend selected by "storage.type" in the config.
+     * @param plugin Plugin instance
+     * @return The configured storage backend
+     */
+    public static StorageBackend fromConfig(ObservationDisplayer plugin) {
+        String type = plugin.getConfig().getString("storage.type", "mysql");
+        if (type.equalsIgnoreCase("sqlite")) {
+            return new SQLiteConnection(plugin);
+        }
+        if (!type.equalsIgnoreCase("mysql")) {
+            plugin.getLogger().warning("Unknown storage type '" + type + "', using MySQL");
+        }
+        return new MySQLConnection(plugin);
+    }
+
+    /**
+     * @return Human readable name of the database
+     */
+    public abstract String getName();
+
+    protected abstract String getDriverClass();
+
+    /**
+     * @return Statements that create the observations table and its original indexes
+     */
+    public abstract List<String> getCreateTableQueries();
+
+    /**
+     * @return Whether generated keys can be read back for every row of a batch insert
+     */
+    public abstract boolean supportsBatchGeneratedKeys();
+
+    /**
+     * @return Whether UPDATE statements may have a LIMIT clause
+     */
+    public abstract boolean supportsUpdateLimit();
+
+    /**
+     * @return Clause that makes a string comparison or index column ignore case,
+     *         or an empty string if the database already compares strings ignoring case
+     */
+    public abstract String getIgnoreCaseCollation();
+
+    public boolean initialize() {
+        try {
+            Class.forName(getDriverClass());
+            this.pool.fill();
+        } catch (SQLException | ClassNotFoundException e) {
+            return false;
+        }
+
+        try {
+            SchemaMigrations.migrate(this);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this.plugin, this.pool::evictIdle,
+                EVICTION_INTERVAL, EVICTION_INTERVAL);
+        return true;
+    }
+
+    /**
+     * Borrows a connection from the pool. Closing it returns it to the pool.
+     * @return A pooled connection
+     * @throws SQLException if no connection could be obtained in time
+     */
+    public Connection getConnection() throws SQLException {
+        return this.pool.borrow();
+    }
+
+    public ConnectionPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * Closes all pooled connections.
+     */
+    public void close() {
+        this.pool.close();
+    }
+
+}
@@ -0,0 +1,187 @@
+package edu.whimc.observationdisplayer.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Bukkit;
+
+import edu.whimc.observationdisplayer.ObservationDisplayer;
+
+/**
+ * Opt-in profiler for the main-thread work of this plugin.
+ * Every task the plugin schedules on the main thread is wrapped with {@link #wrap(String, Runnable)},
+ * which times it and adds it to the current tick. A one-tick timer closes each tick, recording how
+ * much time the plugin spent in it and flagging ticks over the configured budget.
+ * When "profiler.enabled" is false tasks are not wrapped at all, so it costs nothing.
+ * Only used from the main thread.
+ */
+public class TickProfiler implements Runnable {
+
+    private static final int RECENT_OVERRUNS = 5;
+
+    private final ObservationDisplayer plugin;
+    private final boolean enabled;
+    private final long budgetNanos;
+
+    private final Map<String, TaskStats> tasks = new HashMap<>();
+    private final Deque<String> recentOverruns = new ArrayDeque<>();
+    private long startedAt;
+
+    /** Work done in the tick that is currently running. */
+    private long tickNanos = 0;
+    private int tickTasks = 0;
+    private String tickSlowestTask = null;
+    private long tickSlowestNanos = 0;
+
+    private long ticks = 0;
+    private long busyTicks = 0;
+    private long totalNanos = 0;
+    private long maxTickNanos = 0;
+    private int maxTickTasks = 0;
+    private long overruns = 0;
+
+    public TickProfiler(ObservationDisplayer plugin) {
+        this.plugin = plugin;
+        this.enabled = plugin.getConfig().getBoolean("profiler.enabled", false);
+        this.budgetNanos = (long) (plugin.getConfig().getDouble("profiler.tick-budget-ms", 2) * 1_000_000);
+    }
+
+    /**
+     * Starts closing ticks if profiling is enabled.
+     */
+    public void start() {
+        if (this.enabled) {
+            this.startedAt = System.currentTimeMillis();
+            Bukkit.getScheduler().runTaskTimer(this.plugin, this, 1, 1);
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Wraps a main-thread task so its cost is recorded.
+     * @param name Name the task is reported under
+     * @param task The task
+     * @return The task itself if profiling is disabled
+     */
+    public Runnable wrap(String name, Runnable task) {
+        if (!this.enabled) {
+            return task;
+        }
+
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                record(name, System.nanoTime() - start);
+            }
+        };
+    }
+
+    private void record(String name, long nanos) {
+        this.tasks.computeIfAbsent(name, k -> new TaskStats()).record(nanos);
+        this.tickNanos += nanos;
+        this.tickTasks++;
+        if (nanos > this.tickSlowestNanos) {
+            this.tickSlowestNanos = nanos;
+            this.tickSlowestTask = name;
+        }
+    }
+
+    /**
+     * Closes the current tick.
+     */
+    @Override
+    public void run() {
+        this.ticks++;
+        if (this.tickTasks > 0) {
+            this.busyTicks++;
+            this.totalNanos += this.tickNanos;
+            this.maxTickNanos = Math.max(this.maxTickNanos, this.tickNanos);
+            this.maxTickTasks = Math.max(this.maxTickTasks, this.tickTasks);
+
+            if (this.tickNanos > this.budgetNanos) {
+                this.overruns++;
+                String overrun = Utils.getDateNow() + ": " + millis(this.tickNanos) + "ms in " + this.tickTasks +
+                        " task(s), slowest " + this.tickSlowestTask + " (" + millis(this.tickSlowestNanos) + "ms)";
+                Utils.debug("Tick over budget: " + overrun);
+                this.recentOverruns.addFirst(overrun);
+                if (this.recentOverruns.size() > RECENT_OVERRUNS) {
+                    this.recentOverruns.removeLast();
+                }
+            }
+        }
+
+        this.tickNanos = 0;
+        this.tickTasks = 0;
+        this.tickSlowestTask = null;
+        this.tickSlowestNanos = 0;
+    }
+
+    public void reset() {
+        this.tasks.clear();
+        this.recentOverruns.clear();
+        this.startedAt = System.currentTimeMillis();
+        this.ticks = 0;
+        this.busyTicks = 0;
+        this.totalNanos = 0;
+        this.maxTickNanos = 0;
+        this.maxTickTasks = 0;
+        this.overruns = 0;
+    }
+
+    /**
+     * @return The lines of a summary report, with color codes
+     */
+    public List<String> report() {
+        List<String> lines = new ArrayList<>();
+        lines.add("&9Profiling for: &7" + TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - this.startedAt) +
+                "s &8(&7" + this.ticks + " ticks, " + this.busyTicks + " with plugin work&8)");
+        lines.add("&9Plugin time per busy tick: &7" +
+                (this.busyTicks == 0 ? "0.00" : millis(this.totalNanos / this.busyTicks)) + "ms avg, " +
+                millis(this.maxTickNanos) + "ms max");
+        lines.add("&9Most tasks in a tick: &7" + this.maxTickTasks);
+        lines.add("&9Ticks over " + millis(this.budgetNanos) + "ms budget: " +
+                (this.overruns == 0 ? "&a0" : "&c" + this.overruns));
+        this.recentOverruns.forEach(v -> lines.add("  &8- &7" + v));
+
+        lines.add("&9Tasks: &8(count, total, avg, max in ms)");
+        this.tasks.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, TaskStats> v) -> v.getValue().totalNanos).reversed())
+                .forEachOrdered(e -> {
+                    TaskStats stats = e.getValue();
+                    lines.add("  &7" + e.getKey() + ": &f" + stats.count +
+                            "&8, &f" + millis(stats.totalNanos) +
+                            "&8, &f" + millis(stats.totalNanos / stats.count) +
+                            "&8, &f" + millis(stats.maxNanos));
+                });
+        return lines;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1_000_000.0);
+    }
+
+    private static class TaskStats {
+
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+
+        private void record(long nanos) {
+            this.count++;
+            this.totalNanos += nanos;
+            this.maxNanos = Math.max(this.maxNanos, nanos);
+        }
+    }
+
+}
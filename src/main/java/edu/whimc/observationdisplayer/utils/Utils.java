@@ -3,12 +3,16 @@ package edu.whimc.observationdisplayer.utils;
 import java.sql.Timestamp;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -27,7 +31,14 @@ public class Utils {
 
 	private static final String PREFIX = "&8&l[&9&lObservations&8&l]&r ";
 
-	private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("MMMM d yyyy, h:mm a z");
+	private static final DateTimeFormatter DATE_FORMAT = new DateTimeFormatterBuilder()
+	        .parseCaseInsensitive()
+	        .appendPattern("MMMM d yyyy, h:mm a z")
+	        .toFormatter()
+	        .withZone(ZoneId.systemDefault());
+
+	/** Formatted dates by minute, since the format has no seconds. Indexed by minute modulo its size. */
+	private static final AtomicReferenceArray<FormattedDate> DATE_CACHE = new AtomicReferenceArray<>(1024);
 
 	public static void setDebug(boolean shouldDebug) {
 	    debug = shouldDebug;
@@ -56,17 +67,38 @@ public class Utils {
 	 * @return A formatted version of the given date
 	 */
 	public static String getDate(Timestamp timestamp) {
-		return DATE_FORMAT.format(new Date(timestamp.getTime()));
+		return getDate(timestamp.getTime());
+	}
+
+	/**
+	 * Gets a nice formatted date.
+	 * Dates in the same minute format the same, so recently formatted minutes are cached.
+	 * Safe to call from any thread.
+	 * @param millis Milliseconds since the epoch
+	 * @return A formatted version of the given date
+	 */
+	public static String getDate(long millis) {
+		long minute = Math.floorDiv(millis, 60_000L);
+		int slot = (int) Math.floorMod(minute, (long) DATE_CACHE.length());
+
+		FormattedDate cached = DATE_CACHE.get(slot);
+		if (cached != null && cached.minute == minute) {
+			return cached.text;
+		}
+
+		String text = DATE_FORMAT.format(Instant.ofEpochMilli(millis));
+		DATE_CACHE.set(slot, new FormattedDate(minute, text));
+		return text;
 	}
 
 	public static String getDateNow() {
-	    return getDate(new Timestamp(System.currentTimeMillis()));
+	    return getDate(System.currentTimeMillis());
 	}
 
 	public static Timestamp parseDate(String str) {
 	    try {
-	        return new Timestamp(DATE_FORMAT.parse(str).getTime());
-	    } catch (ParseException e) {
+	        return new Timestamp(ZonedDateTime.parse(str, DATE_FORMAT).toInstant().toEpochMilli());
+	    } catch (DateTimeParseException e) {
 	        return null;
 	    }
 	}
@@ -98,29 +130,6 @@ public class Utils {
 		return message.toString();
 	}
 
-	public static void listObservations(CommandSender sender, String player, String world) {
-		if (Observation.getObservations().size() == 0) {
-			Utils.msg(sender, "&7There are currently no observations!");
-			return;
-		}
-
-		Utils.msgNoPrefix(sender, "&7&m-----------------&r &9&lObservation List&r &7&m------------------",
-				"  &9Player: " + (player == null ? "&7N/A" : "&8\"&7&o" + player + "&8\"") +
-				"    &9World: " + (world == null ? "&7N/A" : "&8\"&7&o" + world + "&8\""),
-				"");
-
-		List<Observation> matches = Observation.getObservations().stream()
-		        .filter(v -> player == null || player.equalsIgnoreCase(v.getPlayer()))
-		        .filter(v -> world == null || world.equalsIgnoreCase(v.getHoloLocation().getWorld().getName()))
-		        .collect(Collectors.toList());
-		matches.stream()
-		        .forEachOrdered(v -> Utils.msgNoPrefix(sender, " &7- " + v.toString()));
-
-		Utils.msgNoPrefix(sender, "&9" + matches.size() + " observations(s) found.");
-
-		Utils.msgNoPrefix(sender, "&7&m-----------------------------------------------------");
-	}
-
 	public static String coloredSubstring(String str, int length) {
 		str = color(str);
 		StringBuilder newStr = new StringBuilder();
@@ -185,6 +194,22 @@ public class Utils {
         return obs;
     }
 
+    /**
+     * Finds a loaded world by name, ignoring case.
+     * @param name Name of the world
+     * @return The world, or null if no loaded world has that name
+     */
+    public static World getWorldIgnoreCase(String name) {
+        World world = Bukkit.getWorld(name);
+        if (world != null) {
+            return world;
+        }
+        return Bukkit.getWorlds().stream()
+                .filter(v -> v.getName().equalsIgnoreCase(name))
+                .findFirst()
+                .orElse(null);
+    }
+
     public static List<String> getWorldsTabComplete(String hint) {
         return Bukkit.getWorlds().stream()
                 .filter(v -> v.getName().toLowerCase().startsWith(hint))
@@ -193,8 +218,9 @@ public class Utils {
                 .collect(Collectors.toList());
     }
 
-    public static List<String> getFlaggedTabComplete(CommandSender sender, String[] args) {
+    public static List<String> getFlaggedTabComplete(CommandSender sender, String[] args, String... extraFlags) {
         List<String> res = new ArrayList<>(Arrays.asList("-p", "-w"));
+        res.addAll(Arrays.asList(extraFlags));
         if (args.length == 1) {
             return res;
         }
@@ -210,8 +236,22 @@ public class Utils {
         if (prev.equalsIgnoreCase("-w")) {
             return Utils.getWorldsTabComplete(hint);
         }
+        if (Arrays.asList(extraFlags).contains(prev.toLowerCase())) {
+            return Arrays.asList();
+        }
 
         return res;
     }
 
+    private static class FormattedDate {
+
+        private final long minute;
+        private final String text;
+
+        private FormattedDate(long minute, String text) {
+            this.minute = minute;
+            this.text = text;
+        }
+    }
+
 }
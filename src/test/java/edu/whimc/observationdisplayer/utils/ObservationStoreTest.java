@@ -0,0 +1,192 @@
+package edu.whimc.observationdisplayer.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.whimc.observationdisplayer.utils.ObservationWriter.PendingInsert;
+
+/**
+ * Round trips observation rows through a real SQLite database.
+ */
+public class ObservationStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SQLiteConnection storage;
+    private ObservationStore store;
+
+    @Before
+    public void setUp() throws SQLException {
+        this.storage = new SQLiteConnection(new File(this.folder.getRoot(), "observations.db"), 2, 1000);
+        SchemaMigrations.migrate(this.storage);
+        this.store = new ObservationStore(this.storage);
+    }
+
+    @After
+    public void tearDown() {
+        this.storage.close();
+    }
+
+    @Test
+    public void insertedObservationsAreLoadedByWorld() throws SQLException {
+        int[] ids = this.store.insert(Arrays.asList(
+                insert("Poi", "world", "first", null),
+                insert("Poi", "world", "second", null),
+                insert("Poi", "nether", "elsewhere", null)));
+
+        assertEquals(3, ids.length);
+        assertEquals(3, Arrays.stream(ids).distinct().count());
+
+        List<ObservationRecord> loaded = load("world");
+        assertArrayEquals(new int[] { ids[0], ids[1] }, loaded.stream().mapToInt(ObservationRecord::getId).toArray());
+        assertEquals("first", loaded.get(0).observation);
+        assertEquals("Poi", loaded.get(0).username);
+        assertEquals(null, loaded.get(0).expiration);
+    }
+
+    @Test
+    public void deactivatedObservationsAreNotLoaded() throws SQLException {
+        int[] ids = this.store.insert(Arrays.asList(
+                insert("Poi", "world", "first", null),
+                insert("Poi", "world", "second", null),
+                insert("Poi", "world", "third", null)));
+
+        assertEquals(2, this.store.deactivate(new int[] { ids[0], ids[1] }));
+        assertEquals(0, this.store.deactivate(new int[] { ids[0] }));
+        assertEquals(Collections.singletonList(ids[2]), loadIds("world"));
+    }
+
+    @Test
+    public void deactivateMatchingIgnoresCase() throws SQLException {
+        int[] ids = this.store.insert(Arrays.asList(
+                insert("Poi", "NoMoon", "mine", null),
+                insert("Other", "NoMoon", "theirs", null),
+                insert("Poi", "Redstone World", "elsewhere", null)));
+
+        assertEquals(1, this.store.deactivateMatching("poi", "nomoon"));
+        assertEquals(Collections.singletonList(ids[1]), loadIds("NoMoon"));
+
+        assertEquals(1, this.store.deactivateMatching(null, "redstone world"));
+        assertEquals(Collections.emptyList(), loadIds("Redstone World"));
+    }
+
+    @Test
+    public void expiredObservationsAreNotLoaded() throws SQLException {
+        long now = System.currentTimeMillis();
+        int id = this.store.insert(Collections.singletonList(insert("Poi", "world", "temporary", null)))[0];
+
+        assertEquals(1, this.store.setExpiration(id, now - 1000));
+        assertEquals(Collections.emptyList(), loadIds("world"));
+
+        assertEquals(1, this.store.setExpiration(id, now + 60_000));
+        List<ObservationRecord> loaded = load("world");
+        assertEquals(1, loaded.size());
+        assertEquals(now + 60_000, loaded.get(0).expiration.getTime());
+
+        assertEquals(1, this.store.setExpiration(id, null));
+        assertEquals(null, load("world").get(0).expiration);
+    }
+
+    @Test
+    public void sweepOnlyDeactivatesExpiredObservations() throws SQLException {
+        long now = System.currentTimeMillis();
+        int[] ids = this.store.insert(Arrays.asList(
+                insert("Poi", "world", "expired", now - 1000),
+                insert("Poi", "world", "expired too", now - 2000),
+                insert("Poi", "world", "current", now + 60_000)));
+
+        assertEquals(1, this.store.deactivateExpired(now, 1));
+        assertEquals(1, this.store.deactivateExpired(now, 10));
+        assertEquals(0, this.store.deactivateExpired(now, 10));
+        assertEquals(Collections.singletonList(ids[2]), loadIds("world"));
+    }
+
+    @Test
+    public void inactiveObservationsAreFoundByIdAndTime() throws SQLException {
+        PendingInsert first = insert("Poi", "world", "first", null);
+        int[] ids = this.store.insert(Arrays.asList(
+                first,
+                insert("Poi", "world", "second", null),
+                insert("Poi", "world", "third", null)));
+        this.store.deactivate(ids);
+
+        List<ObservationRecord> found = new ArrayList<>();
+        this.store.streamId(ids[1], 10, found::add);
+        assertEquals(1, found.size());
+        assertEquals("second", found.get(0).observation);
+
+        found.clear();
+        this.store.streamIdRange(ids[1], ids[2], 10, found::add);
+        assertEquals(Arrays.asList(ids[1], ids[2]),
+                found.stream().map(ObservationRecord::getId).collect(Collectors.toList()));
+
+        found.clear();
+        this.store.streamTimeRange(first.time, first.time, 10, found::add);
+        assertTrue(found.stream().anyMatch(record -> record.getId() == ids[0]));
+    }
+
+    @Test
+    public void findStoredMatchesInsertedObservations() throws SQLException {
+        PendingInsert stored = insert("Poi", "world", "stored", null);
+        PendingInsert unstored = insert("Poi", "world", "not stored", null);
+        this.store.insert(Collections.singletonList(stored));
+
+        assertEquals(Collections.singletonList(stored), this.store.findStored(Arrays.asList(stored, unstored)));
+    }
+
+    @Test
+    public void writesDoNotWaitForAnOpenLoad() throws SQLException {
+        this.store.insert(Arrays.asList(
+                insert("Poi", "world", "first", null),
+                insert("Poi", "world", "second", null)));
+
+        // Each write borrows the pool's second connection while the load still holds the first
+        List<Integer> written = new ArrayList<>();
+        this.store.streamWorld("world", System.currentTimeMillis(), 1, record -> {
+            try {
+                written.add(this.store.insert(Collections.singletonList(insert("Poi", "nether", "during load", null)))[0]);
+            } catch (SQLException exc) {
+                throw new IllegalStateException(exc);
+            }
+        });
+
+        assertEquals(2, written.size());
+        assertNotEquals(written.get(0), written.get(1));
+        assertEquals(written, loadIds("nether"));
+        assertTrue(this.storage.getPool().getTotalConnections() <= 2);
+    }
+
+    private List<ObservationRecord> load(String world) throws SQLException {
+        List<ObservationRecord> records = new ArrayList<>();
+        this.store.streamWorld(world, System.currentTimeMillis(), 10, records::add);
+        return records;
+    }
+
+    private List<Integer> loadIds(String world) throws SQLException {
+        return load(world).stream().map(ObservationRecord::getId).collect(Collectors.toList());
+    }
+
+    private static PendingInsert insert(String player, String world, String text, Long expiration) {
+        return new PendingInsert(System.currentTimeMillis(), UUID.nameUUIDFromBytes(player.getBytes()).toString(),
+                player, world, 1, 64, 1, 0, 0, text, expiration, -1, null);
+    }
+
+}